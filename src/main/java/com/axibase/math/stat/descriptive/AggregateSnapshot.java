@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Immutable set of basic statistics of a data set: number of elements,
+ * minimum, maximum, sum and sum of squares.
+ * All of them are calculated in a single pass over the data,
+ * so the DescriptiveStatistics can answer several queries with one scan of the stored values.
+ * The sum and the sum of squares of an empty data set are 0, its minimum and maximum are null.
+ */
+final class AggregateSnapshot implements BasicStatistics {
+
+    private final long n;
+    private final BigDecimal min;
+    private final BigDecimal max;
+    private final BigDecimal sum;
+    private final BigDecimal sumsq;
+
+    AggregateSnapshot(long n, BigDecimal min, BigDecimal max, BigDecimal sum, BigDecimal sumsq) {
+        this.n = n;
+        this.min = min;
+        this.max = max;
+        this.sum = sum;
+        this.sumsq = sumsq;
+    }
+
+    /** Sequential scan of the values evaluated by the {@link ResizableDecimalArray#compute}. */
+    private static final ResizableDecimalArray.Function<AggregateSnapshot> SCAN =
+            new ResizableDecimalArray.Function<AggregateSnapshot>() {
+                @Override
+                public AggregateSnapshot evaluate(BigDecimal[] values, int begin, int length) {
+                    return of(values, begin, length);
+                }
+            };
+
+    /** Merge of statistics of adjacent parts scanned by the {@link ResizableDecimalArray#compute}. */
+    private static final ResizableDecimalArray.Combiner<AggregateSnapshot> MERGE =
+            new ResizableDecimalArray.Combiner<AggregateSnapshot>() {
+                @Override
+                public AggregateSnapshot combine(AggregateSnapshot left, AggregateSnapshot right) {
+                    return merge(left, right);
+                }
+            };
+
+    /**
+     * Calculates statistics of the addressable elements of the array.
+     * The read lock of the array is acquired once for the whole scan.
+     */
+    static AggregateSnapshot of(ResizableDecimalArray array) {
+        return array.compute(SCAN, MERGE);
+    }
+
+    /**
+     * Calculates statistics of the addressable elements of the array, parts of at most {@code threshold}
+     * elements are scanned concurrently in the pool. The result is exactly the same as of the sequential scan:
+     * BigDecimal addition is exact, and the first of equal extremums is kept when parts are merged.
+     * The read lock of the array is held until all parts are scanned.
+     * Chunks of the {@code CHUNKED} storage are scanned one after another, each of them concurrently.
+     */
+    static AggregateSnapshot of(ResizableDecimalArray array, final ForkJoinPool pool, final int threshold) {
+        return array.compute(new ResizableDecimalArray.Function<AggregateSnapshot>() {
+            @Override
+            public AggregateSnapshot evaluate(BigDecimal[] values, int begin, int length) {
+                if (length <= threshold) {
+                    return of(values, begin, length);
+                }
+                return pool.invoke(new ScanTask(values, begin, length, threshold));
+            }
+        }, MERGE);
+    }
+
+    /**
+     * Combines statistics of two adjacent parts of a data set, the left part precedes the right one.
+     */
+    static AggregateSnapshot merge(AggregateSnapshot left, AggregateSnapshot right) {
+        if (right.n == 0) {
+            return left;
+        }
+        if (left.n == 0) {
+            return right;
+        }
+        return new AggregateSnapshot(left.n + right.n,
+                right.min.compareTo(left.min) < 0 ? right.min : left.min,
+                right.max.compareTo(left.max) > 0 ? right.max : left.max,
+                left.sum.add(right.sum),
+                left.sumsq.add(right.sumsq));
+    }
+
+    /**
+     * Calculates statistics of the {@code length} values of the array starting from the {@code begin} index.
+     */
+    static AggregateSnapshot of(BigDecimal[] values, int begin, int length) {
+        if (length == 0) {
+            return new AggregateSnapshot(0, null, null, BigDecimal.ZERO, BigDecimal.ZERO);
+        }
+        BigDecimal min = values[begin];
+        BigDecimal max = min;
+        BigDecimal sum = BigDecimal.ZERO;
+        BigDecimal sumsq = BigDecimal.ZERO;
+        final int end = begin + length;
+        for (int i = begin; i < end; i++) {
+            final BigDecimal value = values[i];
+            if (value.compareTo(min) < 0) {
+                min = value;
+            } else if (value.compareTo(max) > 0) {
+                max = value;
+            }
+            sum = sum.add(value);
+            sumsq = sumsq.add(value.multiply(value));
+        }
+        return new AggregateSnapshot(length, min, max, sum, sumsq);
+    }
+
+    @Override
+    public long getN() {
+        return n;
+    }
+
+    @Override
+    public BigDecimal getMax() {
+        return max;
+    }
+
+    @Override
+    public BigDecimal getMin() {
+        return min;
+    }
+
+    @Override
+    public BigDecimal getSum() {
+        return sum;
+    }
+
+    @Override
+    public BigDecimal getSumsq() {
+        return sumsq;
+    }
+
+    /**
+     * Splits the range in halves until it is not longer than the threshold and merges statistics of the halves.
+     */
+    private static final class ScanTask extends RecursiveTask<AggregateSnapshot> {
+
+        /** Serializable version identifier. */
+        private static final long serialVersionUID = 1L;
+
+        private final BigDecimal[] values;
+        private final int begin;
+        private final int length;
+        private final int threshold;
+
+        ScanTask(BigDecimal[] values, int begin, int length, int threshold) {
+            this.values = values;
+            this.begin = begin;
+            this.length = length;
+            this.threshold = threshold;
+        }
+
+        @Override
+        protected AggregateSnapshot compute() {
+            if (length <= threshold) {
+                return of(values, begin, length);
+            }
+            final int half = length / 2;
+            final ScanTask left = new ScanTask(values, begin, half, threshold);
+            final ScanTask right = new ScanTask(values, begin + half, length - half, threshold);
+            left.fork();
+            final AggregateSnapshot rightResult = right.compute();
+            return merge(left.join(), rightResult);
+        }
+    }
+}
@@ -22,8 +22,8 @@ import java.math.BigDecimal;
 /**
  * The interface enumerates some basic univariate statistics.
  * The classes DescriptiveStatistics and SummaryStatistics implement this interface in different ways.
- * The DescriptiveStatistics recalculates a statistics for stored data from scratch each time
- * the appropriate method is called.
+ * The DescriptiveStatistics recalculates statistics for stored data from scratch in a single pass
+ * when the appropriate method is called after the data set has been changed.
  * The SummaryStatistics just updates cached values of statistics for each new data point.
  * The VarianceCalculator can use any implementation of this interface as an "engine" to calculate data variance.
  * So this interface is introduced to let the VarianceCalculator make its job with the same code for
@@ -0,0 +1,162 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+
+/**
+ * Compact binary encoding of numbers used to serialize statistics.
+ * <ul>
+ *  <li>Integers are written as variable length little-endian base 128 numbers,
+ *  signed integers are zigzag encoded first so that small negative numbers are short.</li>
+ *  <li>A BigDecimal is written as the zigzag varint of its scale followed by its unscaled value:
+ *  the varint 0 and the zigzag varint of the unscaled value if it fits into a long,
+ *  otherwise the varint length and the big-endian two's complement bytes of the unscaled value.</li>
+ *  <li>A MathContext is written as the varint precision and the ordinal of the rounding mode.</li>
+ * </ul>
+ */
+final class BinaryCodec {
+
+    private BinaryCodec() {
+    }
+
+    static void writeVarLong(ByteBuffer buffer, long value) {
+        while ((value & ~0x7FL) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    static long readVarLong(ByteBuffer buffer) {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            final byte b = buffer.get();
+            value |= (long) (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("malformed variable length integer");
+    }
+
+    private static final BigDecimal LONG_MIN = BigDecimal.valueOf(Long.MIN_VALUE);
+    private static final BigDecimal LONG_MAX = BigDecimal.valueOf(Long.MAX_VALUE);
+
+    static int varLongSize(long value) {
+        int size = 1;
+        while ((value & ~0x7FL) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeDecimal(ByteBuffer buffer, BigDecimal value) {
+        writeVarLong(buffer, zigzag(value.scale()));
+        if (fitsLong(value)) {
+            buffer.put((byte) 0);
+            writeVarLong(buffer, zigzag(unscaledLong(value)));
+        } else {
+            final byte[] bytes = value.unscaledValue().toByteArray();
+            writeVarLong(buffer, bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    static BigDecimal readDecimal(ByteBuffer buffer) {
+        final long scale = unzigzag(readVarLong(buffer));
+        if (scale < Integer.MIN_VALUE || scale > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("decimal scale " + scale + " is out of range");
+        }
+        final long length = readVarLong(buffer);
+        if (length == 0) {
+            return BigDecimal.valueOf(unzigzag(readVarLong(buffer)), (int) scale);
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        final byte[] bytes = new byte[(int) length];
+        buffer.get(bytes);
+        return new BigDecimal(new BigInteger(bytes), (int) scale);
+    }
+
+    static int decimalSize(BigDecimal value) {
+        final int scaleSize = varLongSize(zigzag(value.scale()));
+        if (fitsLong(value)) {
+            return scaleSize + 1 + varLongSize(zigzag(unscaledLong(value)));
+        }
+        final int length = value.unscaledValue().bitLength() / 8 + 1;
+        return scaleSize + varLongSize(length) + length;
+    }
+
+    static void writeMathContext(ByteBuffer buffer, MathContext mathContext) {
+        writeVarLong(buffer, mathContext.getPrecision());
+        buffer.put((byte) mathContext.getRoundingMode().ordinal());
+    }
+
+    static MathContext readMathContext(ByteBuffer buffer) {
+        final long precision = readVarLong(buffer);
+        if (precision < 0 || precision > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("precision " + precision + " is out of range");
+        }
+        final int mode = buffer.get();
+        final RoundingMode[] modes = RoundingMode.values();
+        if (mode < 0 || mode >= modes.length) {
+            throw new IllegalArgumentException("unknown rounding mode " + mode);
+        }
+        return new MathContext((int) precision, modes[mode]);
+    }
+
+    static int mathContextSize(MathContext mathContext) {
+        return varLongSize(mathContext.getPrecision()) + 1;
+    }
+
+    private static boolean fitsLong(BigDecimal value) {
+        if (value.precision() < 19) {
+            return true;
+        }
+        if (value.precision() > 19) {
+            return false;
+        }
+        final BigDecimal unscaled = value.scale() == 0 ? value : value.movePointRight(value.scale());
+        return unscaled.compareTo(LONG_MIN) >= 0 && unscaled.compareTo(LONG_MAX) <= 0;
+    }
+
+    /**
+     * Returns the unscaled value of the decimal, which must fit into a long.
+     * The {@link BigDecimal#unscaledValue()} creates a BigInteger on each call, so the value is moved
+     * to a decimal of the zero scale instead, whose long value is its compact unscaled value.
+     */
+    static long unscaledLong(BigDecimal value) {
+        return value.scale() == 0 ? value.longValue() : value.movePointRight(value.scale()).longValue();
+    }
+}
@@ -0,0 +1,251 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Thread safe analog of the {@link SummaryStatistics} for a stream of data values added by many threads.
+ *
+ * Values are accumulated in several stripes, each of them is a SummaryStatistics guarded by its own lock.
+ * A thread adds values to the stripe selected by the thread id, so threads rarely contend for the same lock.
+ * Statistics are calculated by exact combining of the stripes on each read,
+ * so the number of values, sum and sum of squares are exactly the same as of a single SummaryStatistics
+ * fed with the same values. The minimum and the maximum are exactly the same too, including the scale:
+ * each stripe records when its extremes were last set by a counter shared by the stripes,
+ * so of equal extremes the one added last is returned, as by the SummaryStatistics.
+ * The counter is only updated when a value becomes an extreme of its stripe.
+ * As stripes are combined one by one, values added concurrently with a read may be partially taken into account.
+ */
+public class ConcurrentSummaryStatistics implements StatisticalSummary {
+
+    private static final MathContext DEFAULT_MATH_CONTEXT = new MathContext(16, RoundingMode.HALF_UP);
+    private final MathContext mathContext;
+
+    private final Stripe[] stripes;
+
+    /** Order in which the extremes of the stripes were set. */
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * Statistics of the values added to a stripe with the order numbers of their extremes.
+     * Guarded by its own monitor.
+     */
+    private static final class Stripe {
+        private final SummaryStatistics statistics;
+        private long minSequence;
+        private long maxSequence;
+
+        private Stripe(MathContext mathContext) {
+            this.statistics = new SummaryStatistics(mathContext);
+        }
+    }
+
+    /**
+     * Construct an instance with default MathContext and the number of stripes
+     * equal to the number of available processors.
+     */
+    public ConcurrentSummaryStatistics() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_MATH_CONTEXT);
+    }
+
+    /**
+     * Construct an instance with provided number of stripes and MathContext.
+     * @throws IllegalArgumentException if the number of stripes is not positive.
+     */
+    public ConcurrentSummaryStatistics(int stripeCount, MathContext mathContext) {
+        if (stripeCount < 1) {
+            throw new IllegalArgumentException("number of stripes must be positive (" + stripeCount + ")");
+        }
+        this.mathContext = mathContext;
+        this.stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripeCount; i++) {
+            stripes[i] = new Stripe(mathContext);
+        }
+    }
+
+    /**
+     * Update statistics with provided value from the data stream.
+     */
+    public void addValue(BigDecimal value) {
+        final Stripe stripe = stripes[(int) (Thread.currentThread().getId() % stripes.length)];
+        synchronized (stripe) {
+            final SummaryStatistics statistics = stripe.statistics;
+            statistics.addValue(value);
+            // the added value replaces equal extremes, so it is the extreme only if it has just been set
+            final boolean isMin = statistics.getMin() == value;
+            final boolean isMax = statistics.getMax() == value;
+            if (isMin || isMax) {
+                final long order = sequence.incrementAndGet();
+                if (isMin) {
+                    stripe.minSequence = order;
+                }
+                if (isMax) {
+                    stripe.maxSequence = order;
+                }
+            }
+        }
+    }
+
+    /**
+     * Clear all statistics.
+     */
+    public void clear() {
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                stripe.statistics.clear();
+            }
+        }
+    }
+
+    /**
+     * Returns statistics of all values combined from the stripes.
+     * Of equal extremes of several stripes the one added last is taken.
+     */
+    public SummaryStatistics getSummary() {
+        final SummaryStatistics totals = new SummaryStatistics(mathContext);
+        BigDecimal min = null;
+        BigDecimal max = null;
+        long minSequence = 0;
+        long maxSequence = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                final SummaryStatistics statistics = stripe.statistics;
+                if (statistics.getN() == 0) {
+                    continue;
+                }
+                totals.merge(statistics);
+                final BigDecimal stripeMin = statistics.getMin();
+                final int minOrder = min == null ? -1 : stripeMin.compareTo(min);
+                if (minOrder < 0 || minOrder == 0 && stripe.minSequence > minSequence) {
+                    min = stripeMin;
+                    minSequence = stripe.minSequence;
+                }
+                final BigDecimal stripeMax = statistics.getMax();
+                final int maxOrder = max == null ? 1 : stripeMax.compareTo(max);
+                if (maxOrder > 0 || maxOrder == 0 && stripe.maxSequence > maxSequence) {
+                    max = stripeMax;
+                    maxSequence = stripe.maxSequence;
+                }
+            }
+        }
+        final SummaryStatistics result = new SummaryStatistics(mathContext);
+        result.combine(new AggregateSnapshot(totals.getN(), min, max, totals.getSum(), totals.getSumsq()));
+        return result;
+    }
+
+    @Override
+    public long getN() {
+        long n = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                n += stripe.statistics.getN();
+            }
+        }
+        return n;
+    }
+
+    /**
+     * Returns the maximum of the values, of equal maximums the one added last.
+     * Null is returned if there are no values.
+     */
+    @Override
+    public BigDecimal getMax() {
+        return getSummary().getMax();
+    }
+
+    /**
+     * Returns the minimum of the values, of equal minimums the one added last.
+     * Null is returned if there are no values.
+     */
+    @Override
+    public BigDecimal getMin() {
+        return getSummary().getMin();
+    }
+
+    /**
+     * Returns the sum of the values.
+     * If there are no values return null.
+     */
+    @Override
+    public BigDecimal getSum() {
+        return getSummary().getSum();
+    }
+
+    /**
+     * Returns the sum of the squares of the values.
+     * Null is returned if there are no values.
+     */
+    @Override
+    public BigDecimal getSumsq() {
+        return getSummary().getSumsq();
+    }
+
+    @Override
+    public BigDecimal getMean() {
+        return getSummary().getMean();
+    }
+
+    @Override
+    public BigDecimal getMean(MathContext meanContext) {
+        return getSummary().getMean(meanContext);
+    }
+
+    @Override
+    public BigDecimal getVariance() {
+        return getSummary().getVariance();
+    }
+
+    @Override
+    public BigDecimal getVariance(MathContext varianceContext) {
+        return getSummary().getVariance(varianceContext);
+    }
+
+    @Override
+    public BigDecimal getPopulationVariance() {
+        return getSummary().getPopulationVariance();
+    }
+
+    @Override
+    public BigDecimal getPopulationVariance(MathContext varianceContext) {
+        return getSummary().getPopulationVariance(varianceContext);
+    }
+
+    @Override
+    public BigDecimal getStandardDeviation() {
+        return getSummary().getStandardDeviation();
+    }
+
+    @Override
+    public BigDecimal getStandardDeviation(MathContext stdDevContext) {
+        return getSummary().getStandardDeviation(stdDevContext);
+    }
+
+    @Override
+    public BigDecimal getPopulationStandardDeviation() {
+        return getSummary().getPopulationStandardDeviation();
+    }
+
+    @Override
+    public BigDecimal getPopulationStandardDeviation(MathContext stdDevContext) {
+        return getSummary().getPopulationStandardDeviation(stdDevContext);
+    }
+}
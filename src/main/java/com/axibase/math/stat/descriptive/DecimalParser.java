@@ -0,0 +1,228 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Parser of ASCII decimal numbers into an unscaled {@code long} value and a scale.
+ * <p>
+ * The accepted format is the one of the {@link BigDecimal#BigDecimal(String)} constructor
+ * restricted to ASCII digits: an optional sign, digits with an optional decimal point,
+ * and an optional exponent. The result of a successful parse is equal to the BigDecimal
+ * created from the same text, including the scale.
+ * Numbers whose unscaled value does not fit into a {@code long} are not parsed,
+ * the {@link #toBigDecimal} should be used for them instead.
+ * </p>
+ * The parser keeps the result of the last parse, so it is not threadsafe.
+ */
+final class DecimalParser {
+
+    private long unscaledValue;
+    private int scale;
+
+    /** The text being parsed, exactly one of the sources is not null during a parse. */
+    private CharSequence chars;
+    private byte[] bytes;
+    private ByteBuffer buffer;
+
+    long getUnscaledValue() {
+        return unscaledValue;
+    }
+
+    int getScale() {
+        return scale;
+    }
+
+    /**
+     * Parses the characters {@code text[begin], ..., text[end - 1]}.
+     * @return true if the number is parsed, false if its unscaled value does not fit into a long.
+     * @throws NumberFormatException if the text is not a decimal number.
+     */
+    boolean parse(CharSequence text, int begin, int end) {
+        chars = text;
+        try {
+            return parse(begin, end);
+        } finally {
+            chars = null;
+        }
+    }
+
+    /**
+     * Parses the ASCII bytes {@code text[begin], ..., text[end - 1]}.
+     * @see #parse(CharSequence, int, int)
+     */
+    boolean parse(byte[] text, int begin, int end) {
+        bytes = text;
+        try {
+            return parse(begin, end);
+        } finally {
+            bytes = null;
+        }
+    }
+
+    /**
+     * Parses the ASCII bytes of the buffer at absolute positions from begin (inclusive) up to end (exclusive).
+     * The position of the buffer is not changed.
+     * @see #parse(CharSequence, int, int)
+     */
+    boolean parse(ByteBuffer text, int begin, int end) {
+        buffer = text;
+        try {
+            return parse(begin, end);
+        } finally {
+            buffer = null;
+        }
+    }
+
+    /**
+     * Compares the values {@code unscaled1 * 10^-scale1} and {@code unscaled2 * 10^-scale2}
+     * as the {@link BigDecimal#compareTo(BigDecimal)} does, without creating BigDecimals.
+     */
+    static int compare(long unscaled1, int scale1, long unscaled2, int scale2) {
+        final int sign1 = Long.signum(unscaled1);
+        final int sign2 = Long.signum(unscaled2);
+        if (sign1 != sign2 || sign1 == 0) {
+            return Integer.compare(sign1, sign2);
+        }
+        if (scale1 == scale2) {
+            return Long.compare(unscaled1, unscaled2);
+        }
+        if (scale1 < scale2) {
+            return -compare(unscaled2, scale2, unscaled1, scale1);
+        }
+        // the second value is rescaled to the greater scale of the first one, unless it overflows
+        final long shift = (long) scale1 - scale2;
+        if (shift < FixedScaleAccumulator.POWERS_OF_TEN.length) {
+            final long factor = FixedScaleAccumulator.POWERS_OF_TEN[(int) shift];
+            if (unscaled2 <= Long.MAX_VALUE / factor && unscaled2 >= Long.MIN_VALUE / factor) {
+                return Long.compare(unscaled1, unscaled2 * factor);
+            }
+        }
+        // the rescaled second value is greater than any long in magnitude and has the same sign
+        return -sign1;
+    }
+
+    static BigDecimal toBigDecimal(CharSequence text, int begin, int end) {
+        return new BigDecimal(text.subSequence(begin, end).toString());
+    }
+
+    static BigDecimal toBigDecimal(byte[] text, int begin, int end) {
+        return new BigDecimal(new String(text, begin, end - begin, StandardCharsets.US_ASCII));
+    }
+
+    static BigDecimal toBigDecimal(ByteBuffer text, int begin, int end) {
+        final byte[] copy = new byte[end - begin];
+        for (int i = begin; i < end; i++) {
+            copy[i - begin] = text.get(i);
+        }
+        return toBigDecimal(copy, 0, copy.length);
+    }
+
+    private boolean parse(int begin, int end) {
+        int i = begin;
+        boolean negative = false;
+        if (i < end && (at(i) == '-' || at(i) == '+')) {
+            negative = at(i) == '-';
+            i++;
+        }
+        long unscaled = 0;
+        int digits = 0;
+        int fractionDigits = 0;
+        boolean point = false;
+        boolean fits = true;
+        for (; i < end; i++) {
+            final int c = at(i);
+            if (c >= '0' && c <= '9') {
+                final int digit = c - '0';
+                if (unscaled > (Long.MAX_VALUE - digit) / 10) {
+                    fits = false;
+                } else {
+                    unscaled = 10 * unscaled + digit;
+                }
+                digits++;
+                if (point) {
+                    fractionDigits++;
+                }
+            } else if (c == '.' && !point) {
+                point = true;
+            } else if (c == 'e' || c == 'E') {
+                break;
+            } else {
+                throw formatError(begin, end);
+            }
+        }
+        if (digits == 0) {
+            throw formatError(begin, end);
+        }
+        long exponent = 0;
+        if (i < end) {
+            // exponent
+            i++;
+            boolean negativeExponent = false;
+            if (i < end && (at(i) == '-' || at(i) == '+')) {
+                negativeExponent = at(i) == '-';
+                i++;
+            }
+            if (i == end) {
+                throw formatError(begin, end);
+            }
+            for (; i < end; i++) {
+                final int c = at(i);
+                if (c < '0' || c > '9') {
+                    throw formatError(begin, end);
+                }
+                exponent = 10 * exponent + (c - '0');
+                if (exponent > Integer.MAX_VALUE) {
+                    // let the BigDecimal decide whether the number is valid
+                    return false;
+                }
+            }
+            if (negativeExponent) {
+                exponent = -exponent;
+            }
+        }
+        final long newScale = fractionDigits - exponent;
+        if (!fits || newScale > Integer.MAX_VALUE || newScale < Integer.MIN_VALUE) {
+            return false;
+        }
+        unscaledValue = negative ? -unscaled : unscaled;
+        scale = (int) newScale;
+        return true;
+    }
+
+    private int at(int index) {
+        if (chars != null) {
+            return chars.charAt(index);
+        }
+        if (bytes != null) {
+            return bytes[index];
+        }
+        return buffer.get(index);
+    }
+
+    private NumberFormatException formatError(int begin, int end) {
+        final StringBuilder text = new StringBuilder(end - begin);
+        for (int i = begin; i < end; i++) {
+            text.append((char) at(i));
+        }
+        return new NumberFormatException("not a decimal number: " + text);
+    }
+}
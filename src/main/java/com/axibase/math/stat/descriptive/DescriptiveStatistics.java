@@ -17,9 +17,19 @@
 
 package com.axibase.math.stat.descriptive;
 
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Maintains a dataset of values of a single variable and computes descriptive statistics based on stored data.
@@ -47,18 +57,113 @@ import java.math.RoundingMode;
 public class DescriptiveStatistics implements StatisticalSummary {
 
     private static final int INFINITE_WINDOW = -1;
+
+    /** Version of the snapshot format written by the {@link #writeSnapshot(WritableByteChannel)}. */
+    private static final byte SNAPSHOT_VERSION = 1;
+
+    /** Flag of the snapshot format, set if the values are known to be sorted. */
+    private static final int SORTED_FLAG = 1;
+
+    /** Flag of the snapshot format, set if the values are written as fixed width unscaled longs and scales. */
+    private static final int COMPACT_FLAG = 2;
+
+    /** Size of the buffer which collects the snapshot bytes before they are written. */
+    private static final int SNAPSHOT_BUFFER_SIZE = 8192;
     private int windowSize = INFINITE_WINDOW;
 
+    /** Time window duration in milliseconds, INFINITE_WINDOW if values are not discarded by time. */
+    private long windowDuration = INFINITE_WINDOW;
+
+    /** Timestamps of the stored values, maintained only if the windowDuration is finite. */
+    private TimestampQueue timestamps;
+
     private static final MathContext DEFAULT_MATH_CONTEXT = new MathContext(16, RoundingMode.HALF_UP);
     private MathContext mathContext = DEFAULT_MATH_CONTEXT;
 
     /** Store data values. */
     private ResizableDecimalArray ra = new ResizableDecimalArray();
 
-    private PercentileCalculator percentileCalculator = new PercentileCalculator(this.ra.getElements());
+    /** Percentile calculator working on a private copy of the data set, rebuilt if the arrayIsChanged. */
+    private PercentileCalculator percentileCalculator;
 
     private boolean arrayIsChanged = true;
 
+    /** Basic statistics of the stored data, null if the data set has been changed since the last calculation. */
+    private AggregateSnapshot aggregates;
+
+    /**
+     * Running sum and sum of squares of the window, maintained only if the windowSize or the windowDuration is finite.
+     * Null until these statistics are requested for the first time.
+     */
+    private RollingSums rollingSums;
+
+    /**
+     * Minimum and maximum of the window, maintained only if the windowSize or the windowDuration is finite.
+     * Null until these statistics are requested for the first time.
+     */
+    private RollingMinMax rollingMinMax;
+
+    /** Pool for the parallel calculation of the aggregates, null if they are calculated sequentially. */
+    private ForkJoinPool aggregationPool;
+
+    /** Maximal number of values scanned by one task of the parallel calculation of the aggregates. */
+    private int aggregationThreshold;
+
+    /**
+     * True if the stored values are known to be in non-decreasing order.
+     * It is maintained by each change of the data set, but it is not restored by removal of the most recent value.
+     */
+    private boolean sorted = true;
+
+    /**
+     * Number of the most recent values which are equal to the last one, so that the first of equal maximums
+     * of the sorted data set is found in O(1) time. It is valid while the sorted is true and is -1 if unknown.
+     * It is not reduced by discarding of the oldest values, so it may exceed the number of values,
+     * which are all equal then.
+     */
+    private int lastRun = -1;
+
+    /** The stored values viewed as a sorted data set, valid while the sorted is true. */
+    private final RankSelector sortedValues = new RankSelector() {
+        @Override
+        public int size() {
+            return (int) getN();
+        }
+
+        @Override
+        public BigDecimal select(int k) {
+            return getElement(k);
+        }
+    };
+
+    /**
+     * The oldest values spilled to disk, null unless the spill storage is turned on.
+     * The ra keeps the most recent values then.
+     */
+    private SpilledValues spilled;
+
+    /** The spilled and the most recent values viewed as a data set which selects elements by passes over them. */
+    private final RankSelector spilledValues = new RankSelector() {
+        @Override
+        public int size() {
+            return (int) getN();
+        }
+
+        @Override
+        public BigDecimal select(int k) {
+            return spilled.select(ra, k);
+        }
+    };
+
+    /** If true, percentiles are evaluated with help of the percentileTree. */
+    private boolean indexedPercentile = false;
+
+    /**
+     * Sorted copy of the data set, maintained only if the indexedPercentile is true.
+     * Null until a percentile is requested for the first time.
+     */
+    private OrderStatisticTree percentileTree;
+
     /**
      * Creates instance with infinite data storage and default MathContext - 16 digits precision and
      * HALF_UP rounding mode.
@@ -92,6 +197,16 @@ public class DescriptiveStatistics implements StatisticalSummary {
         this.mathContext = mathContext;
     }
 
+    /**
+     * Construct an instance which keeps values with timestamps within the provided duration
+     * before the most recent timestamp, see {@link #addValue(long, BigDecimal)}.
+     * @param windowDuration
+     * @param unit
+     */
+    public DescriptiveStatistics(long windowDuration, TimeUnit unit) {
+        setWindowDuration(windowDuration, unit);
+    }
+
     /**
      * Construct an instance with provided data and default MathContext.
      * @param values
@@ -99,6 +214,7 @@ public class DescriptiveStatistics implements StatisticalSummary {
     public DescriptiveStatistics(BigDecimal[] values) {
         if (values != null) {
             ra = new ResizableDecimalArray(values);
+            sorted = isNonDecreasing(null, values, 0, values.length);
         }
     }
 
@@ -109,25 +225,359 @@ public class DescriptiveStatistics implements StatisticalSummary {
     public DescriptiveStatistics(BigDecimal[] values, MathContext mathContext) {
         if (values != null) {
             ra = new ResizableDecimalArray(values);
+            sorted = isNonDecreasing(null, values, 0, values.length);
         }
         this.mathContext = mathContext;
     }
 
+    /**
+     * Creates an instance with infinite data storage which uses the provided array as its storage
+     * instead of copying it. The caller must not modify the array afterwards.
+     * @param values
+     */
+    public static DescriptiveStatistics adopt(BigDecimal[] values) {
+        final DescriptiveStatistics result = new DescriptiveStatistics();
+        result.ra = ResizableDecimalArray.adopt(values);
+        result.sorted = isNonDecreasing(null, values, 0, values.length);
+        return result;
+    }
+
+    /**
+     * Writes the window size, the MathContext, the basic statistics and the stored values to the channel.
+     * If all values have at most 18 significant digits and a scale within the byte range,
+     * they are written as big-endian unscaled longs followed by the scales, so that the snapshot
+     * can be opened in constant time by the {@link #openSnapshot(FileChannel)}.
+     * Otherwise the values are written in a variable length encoding and are decoded on reading.
+     * @throws IllegalStateException if the values are kept within a time window or some of them are spilled,
+     * snapshots of the timestamps and of the spill storage are not supported.
+     * @throws IOException if the channel fails.
+     */
+    public void writeSnapshot(WritableByteChannel channel) throws IOException {
+        if (timestamps != null) {
+            throw new IllegalStateException("snapshot of the time window is not supported");
+        }
+        if (spilled != null && spilled.size() > 0) {
+            throw new IllegalStateException("snapshot of the spilled values is not supported");
+        }
+        final int n = ra.getNumElements();
+        final boolean compact = ra.isPackable();
+        final AggregateSnapshot totals = getAggregates();
+        int headerSize = 1 + 1 + BinaryCodec.varLongSize(BinaryCodec.zigzag(windowSize))
+                + BinaryCodec.mathContextSize(mathContext) + BinaryCodec.varLongSize(n);
+        if (n > 0) {
+            headerSize += BinaryCodec.decimalSize(totals.getMin()) + BinaryCodec.decimalSize(totals.getMax())
+                    + BinaryCodec.decimalSize(totals.getSum()) + BinaryCodec.decimalSize(totals.getSumsq());
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(Math.max(SNAPSHOT_BUFFER_SIZE, headerSize + 8));
+        buffer.put(SNAPSHOT_VERSION);
+        buffer.put((byte) ((sorted ? SORTED_FLAG : 0) | (compact ? COMPACT_FLAG : 0)));
+        BinaryCodec.writeVarLong(buffer, BinaryCodec.zigzag(windowSize));
+        BinaryCodec.writeMathContext(buffer, mathContext);
+        BinaryCodec.writeVarLong(buffer, n);
+        if (n > 0) {
+            BinaryCodec.writeDecimal(buffer, totals.getMin());
+            BinaryCodec.writeDecimal(buffer, totals.getMax());
+            BinaryCodec.writeDecimal(buffer, totals.getSum());
+            BinaryCodec.writeDecimal(buffer, totals.getSumsq());
+        }
+        if (compact) {
+            // the unscaled values are aligned to 8 bytes from the beginning of the snapshot
+            while (buffer.position() % 8 != 0) {
+                buffer.put((byte) 0);
+            }
+            flush(channel, buffer);
+            ra.writeCompact(channel, buffer);
+        } else {
+            for (int i = 0; i < n; i++) {
+                final BigDecimal value = ra.getElement(i);
+                if (buffer.remaining() < BinaryCodec.decimalSize(value)) {
+                    flush(channel, buffer);
+                    if (buffer.remaining() < BinaryCodec.decimalSize(value)) {
+                        final ByteBuffer large = ByteBuffer.allocate(BinaryCodec.decimalSize(value));
+                        BinaryCodec.writeDecimal(large, value);
+                        flush(channel, large);
+                        continue;
+                    }
+                }
+                BinaryCodec.writeDecimal(buffer, value);
+            }
+            flush(channel, buffer);
+        }
+    }
+
+    /**
+     * Opens the snapshot written to the file by the {@link #writeSnapshot(WritableByteChannel)}.
+     * The file is mapped into memory and the compact snapshot is not read beyond its header:
+     * the basic statistics are restored from the header and the values are read from the mapped region on demand
+     * until the data set is modified, then they are copied to the heap.
+     * The mapping stays valid after the channel is closed.
+     * @throws IllegalArgumentException if the snapshot is written in unsupported format.
+     * @throws IOException if the channel fails.
+     */
+    public static DescriptiveStatistics openSnapshot(FileChannel channel) throws IOException {
+        return readSnapshot(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+    }
+
+    /**
+     * Reads the snapshot written by the {@link #writeSnapshot(WritableByteChannel)} from the buffer
+     * and moves the buffer position to the end of the snapshot.
+     * The values of the compact snapshot are not copied, they are read from the buffer on demand
+     * until the data set is modified, so the buffer content must not be modified afterwards.
+     * The snapshot is validated before the values are restored, if it is rejected
+     * the buffer position is not changed.
+     * @throws IllegalArgumentException if the snapshot is written in unsupported format,
+     * the window size or the number of values is out of range or the number of values exceeds the window size.
+     * @throws BufferUnderflowException if the buffer ends before the snapshot.
+     */
+    public static DescriptiveStatistics readSnapshot(ByteBuffer buffer) {
+        final int start = buffer.position();
+        try {
+            return readSnapshot(buffer, start);
+        } catch (RuntimeException e) {
+            buffer.position(start);
+            throw e;
+        }
+    }
+
+    private static DescriptiveStatistics readSnapshot(ByteBuffer buffer, int start) {
+        final byte version = buffer.get();
+        if (version != SNAPSHOT_VERSION) {
+            throw new IllegalArgumentException("unsupported snapshot version " + version);
+        }
+        final int flags = buffer.get();
+        final long window = BinaryCodec.unzigzag(BinaryCodec.readVarLong(buffer));
+        if (window != INFINITE_WINDOW && (window < 1 || window > Integer.MAX_VALUE)) {
+            throw new IllegalArgumentException("snapshot window size " + window + " is out of range");
+        }
+        final int windowSize = (int) window;
+        final DescriptiveStatistics result = new DescriptiveStatistics(BinaryCodec.readMathContext(buffer));
+        final long count = BinaryCodec.readVarLong(buffer);
+        if (count < 0 || count > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("snapshot number of values " + count + " is out of range");
+        }
+        final int n = (int) count;
+        if (windowSize != INFINITE_WINDOW && n > windowSize) {
+            throw new IllegalArgumentException("snapshot number of values " + n
+                    + " exceeds the window size " + windowSize);
+        }
+        if (n > 0) {
+            final BigDecimal min = BinaryCodec.readDecimal(buffer);
+            final BigDecimal max = BinaryCodec.readDecimal(buffer);
+            final BigDecimal sum = BinaryCodec.readDecimal(buffer);
+            final BigDecimal sumsq = BinaryCodec.readDecimal(buffer);
+            result.aggregates = new AggregateSnapshot(n, min, max, sum, sumsq);
+        }
+        if ((flags & COMPACT_FLAG) != 0) {
+            final long valuesStart = start + (buffer.position() - start + 7L) / 8 * 8;
+            // 8 bytes of the unscaled value and a byte of the scale per value
+            final long valuesEnd = valuesStart + 9L * n;
+            if (valuesEnd > buffer.limit()) {
+                throw new BufferUnderflowException();
+            }
+            buffer.position((int) valuesStart);
+            final ByteBuffer values = buffer.slice();
+            values.limit(9 * n);
+            buffer.position((int) valuesEnd);
+            result.ra = ResizableDecimalArray.map(values, n);
+        } else {
+            // each value takes at least a byte, so the array is not allocated for a truncated snapshot
+            if (n > buffer.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            final BigDecimal[] values = new BigDecimal[n];
+            for (int i = 0; i < n; i++) {
+                values[i] = BinaryCodec.readDecimal(buffer);
+            }
+            result.ra = ResizableDecimalArray.adopt(values);
+        }
+        result.windowSize = windowSize;
+        result.ra.setCircular(result.isRolling());
+        result.sorted = (flags & SORTED_FLAG) != 0;
+        return result;
+    }
+
     /** Adds value to the data set. If the data set is at the maximum size i.e.,
      * the number of stored elements equals the currently configured windowSize,
      * the first (oldest) element in the data set is discarded to make room for the new value.
      */
     public void addValue(BigDecimal value) {
+        if (timestamps != null) {
+            throw new IllegalStateException("timestamp is required to add a value to the time window");
+        }
+        append(value);
+        dataChanged();
+    }
+
+    /**
+     * Adds the value {@code unscaledValue * 10^-scale} to the data set, see {@link #addValue(BigDecimal)}.
+     */
+    public void addUnscaled(long unscaledValue, int scale) {
+        addValue(BigDecimal.valueOf(unscaledValue, scale));
+    }
+
+    /**
+     * Adds the exact integer value to the data set, see {@link #addValue(BigDecimal)}.
+     * Integral arguments are never widened to the {@link #addValue(double)}.
+     */
+    public void addValue(long value) {
+        addValue(BigDecimal.valueOf(value));
+    }
+
+    /**
+     * Adds the exact value of the provided double to the data set, as converted by the
+     * {@link BigDecimal#BigDecimal(double)} constructor.
+     * @throws NumberFormatException if the value is infinite or NaN.
+     */
+    public void addValue(double value) {
+        addValue(value, false);
+    }
+
+    /**
+     * Adds the value of the provided double to the data set. If the {@code canonical} is true,
+     * the value is converted by the {@link BigDecimal#valueOf(double)} method, that is the shortest
+     * decimal which is rounded to the double, otherwise the exact binary value of the double is used.
+     * @throws NumberFormatException if the value is infinite or NaN.
+     */
+    public void addValue(double value, boolean canonical) {
+        addValue(canonical ? BigDecimal.valueOf(value) : new BigDecimal(value));
+    }
+
+    /**
+     * Adds value with the provided timestamp to the data set.
+     * Values with timestamps less than or equal to {@code timestampMillis - windowDuration} are discarded
+     * from the front of the data set before the value is added. The windowSize limit is applied as well.
+     * The running statistics are updated by the discarded values only,
+     * so the cost does not depend on the number of values in the window.
+     * @throws IllegalStateException if the window duration is not set.
+     * @throws IllegalArgumentException if the timestamp is less than the timestamp of the most recent value.
+     */
+    public void addValue(long timestampMillis, BigDecimal value) {
+        if (timestamps == null) {
+            throw new IllegalStateException("window duration is not set");
+        }
+        timestamps.checkNext(timestampMillis);
+        discardFront(timestamps.countUpTo(timestampMillis - windowDuration));
+        append(value);
+        // the timestamp is added after the value, so a rejected call leaves no orphan timestamp
+        timestamps.add(timestampMillis);
+        dataChanged();
+    }
+
+    /**
+     * Discards values with timestamps less than or equal to {@code currentTimeMillis - windowDuration}.
+     * It allows to slide the time window when no values are added.
+     * @throws IllegalStateException if the window duration is not set.
+     */
+    public void evictExpired(long currentTimeMillis) {
+        if (timestamps == null) {
+            throw new IllegalStateException("window duration is not set");
+        }
+        final int expired = timestamps.countUpTo(currentTimeMillis - windowDuration);
+        if (expired > 0) {
+            discardFront(expired);
+            dataChanged();
+        }
+    }
+
+    /**
+     * Adds value to the end of the data set discarding the oldest value if the windowSize is reached.
+     */
+    private void append(BigDecimal value) {
+        final long n = getN();
+        if (sorted) {
+            final int comparison = n > 0 ? value.compareTo(getElement((int) n - 1)) : 1;
+            if (comparison < 0) {
+                sorted = false;
+            } else if (comparison > 0) {
+                lastRun = 1;
+            } else if (lastRun > 0) {
+                lastRun = (int) Math.min(lastRun, n) + 1;
+            }
+        }
         if (windowSize != INFINITE_WINDOW) {
-            if (getN() == windowSize) {
-                ra.addElementRolling(value);
-            } else if (getN() < windowSize) {
+            if (n == windowSize) {
+                frontValueRemoved(ra.addElementRolling(value));
+                if (timestamps != null) {
+                    timestamps.discardFront(1);
+                }
+                valueAdded(value);
+            } else if (n < windowSize) {
                 ra.addElement(value);
+                valueAdded(value);
             }
         } else {
             ra.addElement(value);
+            valueAdded(value);
+            spill();
         }
-        arrayIsChanged = true;
+    }
+
+    /**
+     * Adds the values {@code values[from], ..., values[to - 1]} to the data set in the given order.
+     * The result is the same as of the {@link #addValue(BigDecimal)} called for each of the values,
+     * but the window is truncated and the cached statistics are invalidated once per call,
+     * and the values which would be discarded by the later values of the same call are not stored at all.
+     * @throws IllegalArgumentException if the range is not within the {@code values} array.
+     * @throws IllegalStateException if the window duration is set, values without timestamps can not be added.
+     */
+    public void addValues(BigDecimal[] values, int from, int to) {
+        if (timestamps != null) {
+            throw new IllegalStateException("timestamp is required to add a value to the time window");
+        }
+        if (from < 0 || to > values.length || from > to) {
+            throw new IllegalArgumentException("range [" + from + ", " + to + ") is out of array of "
+                    + values.length + " elements");
+        }
+        if (windowSize != INFINITE_WINDOW) {
+            if (to - from >= windowSize) {
+                // the whole window is replaced, running statistics are rebuilt on demand
+                ra.clear();
+                sorted = true;
+                rollingSums = null;
+                rollingMinMax = null;
+                percentileTree = null;
+                from = to - windowSize;
+            } else {
+                final int discarded = ra.getNumElements() + (to - from) - windowSize;
+                if (discarded > 0) {
+                    discardFront(discarded);
+                }
+            }
+        }
+        if (sorted && from < to) {
+            final BigDecimal last = getN() > 0 ? getElement((int) getN() - 1) : null;
+            sorted = isNonDecreasing(last, values, from, to);
+            int run = 1;
+            while (from + run < to && values[to - 1 - run].compareTo(values[to - 1]) == 0) {
+                run++;
+            }
+            if (from + run < to || last == null || last.compareTo(values[to - 1]) != 0) {
+                lastRun = run;
+            } else if (lastRun > 0) {
+                lastRun = (int) Math.min(lastRun, getN()) + run;
+            }
+        }
+        ra.addElements(values, from, to);
+        if (rollingSums != null || rollingMinMax != null || percentileTree != null) {
+            for (int i = from; i < to; i++) {
+                valueAdded(values[i]);
+            }
+        }
+        spill();
+        dataChanged();
+    }
+
+    /**
+     * Adds all values of the collection to the data set in the iteration order,
+     * see {@link #addValues(BigDecimal[], int, int)}.
+     */
+    public void addValues(Iterable<BigDecimal> values) {
+        final List<BigDecimal> list = new ArrayList<>();
+        for (BigDecimal value : values) {
+            list.add(value);
+        }
+        final BigDecimal[] array = list.toArray(new BigDecimal[list.size()]);
+        addValues(array, 0, array.length);
     }
 
     /**
@@ -135,31 +585,57 @@ public class DescriptiveStatistics implements StatisticalSummary {
      */
     public void clear() {
         ra.clear();
-        arrayIsChanged = true;
+        if (spilled != null) {
+            spilled.clear();
+        }
+        if (timestamps != null) {
+            timestamps.clear();
+        }
+        rollingSums = null;
+        rollingMinMax = null;
+        percentileTree = null;
+        dataChanged();
     }
 
     /**
      * Returns the value at the specified index.
      */
     public BigDecimal getElement(int index) {
-        return ra.getElement(index);
+        final int spilledCount = spilled != null ? spilled.size() : 0;
+        if (index >= 0 && index < spilledCount) {
+            return spilled.get(index);
+        }
+        return ra.getElement(index - spilledCount);
     }
 
     /**
      * If there are no elements then result will be null.
      */
     public BigDecimal getMax() {
-        BigDecimal max;
-        if (getN() == 0) {
-            return null;
-        }
-        max = ra.getElement(0);
-        for (int i = 1; i < getN(); i++) {
-            if (max.compareTo(ra.getElement(i)) < 0) {
-                max = ra.getElement(i);
+        if (sorted && getN() > 0) {
+            // the first of equal maximums is returned as by the other methods
+            final int n = (int) getN();
+            if (lastRun < 0) {
+                // binary search for the first of the equal maximums
+                final BigDecimal max = getElement(n - 1);
+                int low = 0;
+                int high = n - 1;
+                while (low < high) {
+                    final int middle = (low + high) >>> 1;
+                    if (getElement(middle).compareTo(max) < 0) {
+                        low = middle + 1;
+                    } else {
+                        high = middle;
+                    }
+                }
+                lastRun = n - low;
             }
+            return getElement(n - Math.min(lastRun, n));
+        }
+        if (isRolling()) {
+            return getRollingMinMax().getMax();
         }
-        return max;
+        return getAggregates().getMax();
     }
 
     /**
@@ -187,24 +663,20 @@ public class DescriptiveStatistics implements StatisticalSummary {
      * If there are no elements then result will be null.
      */
     public BigDecimal getMin() {
-        BigDecimal min;
-        if (getN() == 0) {
-            return null;
+        if (sorted && getN() > 0) {
+            return getElement(0);
         }
-        min = ra.getElement(0);
-        for (int i = 1; i < getN(); i++) {
-            if (min.compareTo(ra.getElement(i)) > 0) {
-                min = ra.getElement(i);
-            }
+        if (isRolling()) {
+            return getRollingMinMax().getMin();
         }
-        return min;
+        return getAggregates().getMin();
     }
 
     /**
      * Return the number of elements in the data set.
      */
     public long getN() {
-        return ra.getNumElements();
+        return ra.getNumElements() + (spilled != null ? spilled.size() : 0);
     }
 
     /**
@@ -212,13 +684,45 @@ public class DescriptiveStatistics implements StatisticalSummary {
      * 0 <= p <= 100
      */
     public BigDecimal getPercentile(BigDecimal p) {
+        if (sorted) {
+            return PercentileCalculator.evaluate(sortedValues, p);
+        }
+        if (spilled != null && spilled.size() > 0) {
+            return PercentileCalculator.evaluate(spilledValues, p);
+        }
+        if (indexedPercentile) {
+            return PercentileCalculator.evaluate(getPercentileTree(), p);
+        }
         if (arrayIsChanged) {
-            percentileCalculator = new PercentileCalculator(this.ra.getElements());
+            percentileCalculator = PercentileCalculator.adopt(this.ra.getElements());
             arrayIsChanged = false;
         }
         return percentileCalculator.evaluate(p);
     }
 
+    /**
+     * Evaluates percentiles of the stored data set for each of provided p, 0 <= p <= 100.
+     * The elements required by all percentiles are selected in one pass,
+     * which is cheaper than separate calls of the {@link #getPercentile(BigDecimal)}.
+     * If there are no elements the result contains nulls.
+     */
+    public BigDecimal[] getPercentiles(BigDecimal... ps) {
+        if (sorted) {
+            return PercentileCalculator.evaluate(sortedValues, ps);
+        }
+        if (spilled != null && spilled.size() > 0) {
+            return PercentileCalculator.evaluate(spilledValues, ps);
+        }
+        if (indexedPercentile) {
+            return PercentileCalculator.evaluate(getPercentileTree(), ps);
+        }
+        if (arrayIsChanged) {
+            percentileCalculator = PercentileCalculator.adopt(this.ra.getElements());
+            arrayIsChanged = false;
+        }
+        return percentileCalculator.evaluate(ps);
+    }
+
     @Override
     public BigDecimal getStandardDeviation() {
         return getStandardDeviation(mathContext);
@@ -252,11 +756,10 @@ public class DescriptiveStatistics implements StatisticalSummary {
      * If there are no elements then result will be 0.
      */
     public BigDecimal getSum() {
-        BigDecimal sum = new BigDecimal(0);
-        for (int i = 0; i < getN(); i++) {
-            sum = sum.add(ra.getElement(i));
+        if (isRolling()) {
+            return getRollingSums().getSum();
         }
-        return sum;
+        return getAggregates().getSum();
     }
 
     @Override
@@ -294,17 +797,221 @@ public class DescriptiveStatistics implements StatisticalSummary {
     }
 
     public BigDecimal[] getValues() {
+        if (spilled != null && spilled.size() > 0) {
+            final BigDecimal[] values = new BigDecimal[(int) getN()];
+            final int spilledCount = spilled.size();
+            for (int i = 0; i < spilledCount; i++) {
+                values[i] = spilled.get(i);
+            }
+            ra.getElements(0, values, spilledCount, ra.getNumElements());
+            return values;
+        }
         return ra.getElements();
     }
 
+    /**
+     * Evaluates the function on the values of the data set in the order they were added.
+     * The function reads the storage directly without copying unless the values are packed,
+     * wrap around the end of the circular storage of the window or have been spilled to disk.
+     *
+     * @param f function to evaluate, it must neither modify the provided array nor keep a reference to it.
+     * @param <T> type of the result.
+     * @return the result of the function.
+     */
+    public <T> T compute(ResizableDecimalArray.Function<T> f) {
+        if (spilled != null && spilled.size() > 0) {
+            final BigDecimal[] values = getValues();
+            return f.evaluate(values, 0, values.length);
+        }
+        return ra.compute(f);
+    }
+
+    /**
+     * Evaluates the function on consecutive parts of the data set and merges the results of the parts
+     * in their order, see {@link ResizableDecimalArray#compute(ResizableDecimalArray.Function,
+     * ResizableDecimalArray.Combiner)}. Unlike the {@link #compute(ResizableDecimalArray.Function)}
+     * it copies no more than a chunk of values unless the values have been spilled to disk.
+     *
+     * @param f function to evaluate on each part, it must neither modify the provided array nor keep a reference to it.
+     * @param combiner combiner of the results of adjacent parts.
+     * @param <T> type of the result.
+     * @return the result of the function.
+     */
+    public <T> T compute(ResizableDecimalArray.Function<T> f, ResizableDecimalArray.Combiner<T> combiner) {
+        if (spilled != null && spilled.size() > 0) {
+            final BigDecimal[] values = getValues();
+            return f.evaluate(values, 0, values.length);
+        }
+        return ra.compute(f, combiner);
+    }
+
     public int getWindowSize() {
         return this.windowSize;
     }
 
+    /**
+     * Returns the time window duration in milliseconds or -1 if values are not discarded by time.
+     */
+    public long getWindowDuration() {
+        return windowDuration;
+    }
+
+    /**
+     * Sets the time window duration, see {@link #addValue(long, BigDecimal)}.
+     * The duration of -1 turns off the time window.
+     * Values are discarded according to the new duration when the next value is added
+     * or the {@link #evictExpired(long)} is called.
+     * @throws IllegalArgumentException if the duration is shorter than one millisecond and is not -1.
+     * @throws IllegalStateException if the data set contains values added without timestamps.
+     */
+    public void setWindowDuration(long windowDuration, TimeUnit unit) {
+        if (windowDuration == INFINITE_WINDOW) {
+            this.windowDuration = INFINITE_WINDOW;
+            timestamps = null;
+            ra.setCircular(isRolling());
+            if (!isRolling()) {
+                // running statistics are not maintained for infinite window
+                rollingSums = null;
+                rollingMinMax = null;
+            }
+            return;
+        }
+        final long windowMillis = unit.toMillis(windowDuration);
+        if (windowMillis < 1) {
+            throw new IllegalArgumentException("window duration must be at least one millisecond ("
+                    + windowDuration + " " + unit + ")");
+        }
+        if (spilled != null) {
+            throw new IllegalStateException("window of the spilled values is infinite");
+        }
+        if (timestamps == null && ra.getNumElements() > 0) {
+            throw new IllegalStateException("timestamps of the stored values are unknown");
+        }
+        this.windowDuration = windowMillis;
+        ra.setCircular(true);
+        if (timestamps == null) {
+            timestamps = new TimestampQueue();
+        }
+    }
+
+    /**
+     * Returns true if the stored values are known to be in non-decreasing order.
+     * The minimum, the maximum and percentiles of such data set are read directly from the storage
+     * without copying and selection.
+     * Values are known to be sorted if each added value is not less than the previous one,
+     * once the order has been broken it is restored only if the data set is cleared or
+     * reduced to a single value.
+     */
+    public boolean isSorted() {
+        return sorted;
+    }
+
+    /**
+     * Returns true if percentiles are evaluated with help of the sorted copy of the data set.
+     */
+    public boolean isIndexedPercentile() {
+        return indexedPercentile;
+    }
+
+    /**
+     * Turns on or off evaluation of percentiles with help of the sorted copy of the data set.
+     * <p>
+     * By default the {@link #getPercentile(BigDecimal)} method copies the data set and selects the required elements
+     * from the copy each time the data set has been changed, that is O(n) operations for n stored values.
+     * If the indexed percentile evaluation is turned on, the values are also kept in a balanced order statistic tree.
+     * Adding, evicting and replacing a value and selecting the k-th smallest value take O(log n) time then,
+     * so a percentile of a rolling window can be evaluated after each added value cheaply.
+     * The tree takes additional memory of several dozen bytes per stored value.
+     * </p>
+     */
+    public void setIndexedPercentile(boolean indexedPercentile) {
+        this.indexedPercentile = indexedPercentile;
+        if (!indexedPercentile) {
+            percentileTree = null;
+        }
+    }
+
+    /**
+     * Returns the storage mode of the data set.
+     */
+    public ResizableDecimalArray.StorageMode getStorageMode() {
+        return ra.getStorageMode();
+    }
+
+    /**
+     * Sets the storage mode of the data set, see {@link ResizableDecimalArray.StorageMode}.
+     * The {@code COMPACT} mode takes several times less memory per stored value
+     * if the values have at most 18 significant digits, but each read of a value creates a new BigDecimal.
+     * The {@code OFF_HEAP} mode packs such values the same way outside of the heap.
+     * The {@code CHUNKED} mode keeps BigDecimals in fixed size chunks, so a large data set grows
+     * without copying the stored values to a larger array.
+     */
+    public void setStorageMode(ResizableDecimalArray.StorageMode storageMode) {
+        ra.setStorageMode(storageMode);
+    }
+
+    /**
+     * Turns on the parallel calculation of the sum, the sum of squares, the minimum and the maximum
+     * of the stored values. The values are split into parts of at most {@code threshold} elements,
+     * which are scanned concurrently in the pool, so data sets of at most {@code threshold} values
+     * are still scanned in the caller thread.
+     * The results are exactly the same as of the sequential calculation.
+     * The null pool turns off the parallel calculation.
+     * <p>
+     * It makes sense for large data sets with infinite window only,
+     * as these statistics are maintained incrementally for a finite window.
+     * </p>
+     * @throws IllegalArgumentException if the threshold is not positive.
+     */
+    public void setParallelAggregation(ForkJoinPool pool, int threshold) {
+        if (pool != null && threshold < 1) {
+            throw new IllegalArgumentException("threshold must be positive (" + threshold + ")");
+        }
+        this.aggregationPool = pool;
+        this.aggregationThreshold = threshold;
+    }
+
+    /**
+     * Turns on spilling of the oldest values to files in the directory, so that the data set
+     * is not limited by the heap size. Once more than {@code segmentSize} values are kept in memory,
+     * the oldest {@code segmentSize} of them are sealed into an immutable segment file, which is mapped into memory.
+     * The sum, the sum of squares, the minimum and the maximum of the sealed values are calculated once,
+     * percentiles are selected by several passes over the segments which keep at most {@code segmentSize} values
+     * in memory. Once no values are kept in memory, removal or replacement of the most recent value
+     * reads the most recent segment back into memory.
+     * The null directory turns off the spilling.
+     * @throws IllegalArgumentException if the segment size is not positive.
+     * @throws IllegalStateException if the window is finite or some values have already been spilled,
+     * or if a segment can not be written.
+     */
+    public void setSpillStorage(File directory, int segmentSize) {
+        if (directory != null && segmentSize < 1) {
+            throw new IllegalArgumentException("segment size must be positive (" + segmentSize + ")");
+        }
+        if (directory != null && isRolling()) {
+            throw new IllegalStateException("values of a finite window can not be spilled");
+        }
+        if (spilled != null && spilled.size() > 0) {
+            throw new IllegalStateException("values have already been spilled");
+        }
+        spilled = directory == null ? null : new SpilledValues(directory, segmentSize);
+        percentileTree = null;
+        spill();
+        dataChanged();
+    }
+
     public void removeMostRecentValue() {
+        reloadSpilled();
         try {
+            BigDecimal removed = ra.getNumElements() > 0 ? ra.getElement(ra.getNumElements() - 1) : null;
             ra.discardMostRecentElements(1);
-            arrayIsChanged = true;
+            if (timestamps != null) {
+                timestamps.discardLast();
+            }
+            // the run of the previous values is unknown if the removed value ended the run
+            lastRun = lastRun > 1 ? lastRun - 1 : -1;
+            lastValueRemoved(removed);
+            dataChanged();
         } catch (IllegalArgumentException ex) {
             throw new IllegalStateException("no data");
         }
@@ -312,8 +1019,22 @@ public class DescriptiveStatistics implements StatisticalSummary {
     }
 
     public BigDecimal replaceMostRecentValue(BigDecimal number) {
+        if (sorted) {
+            final int comparison = getN() > 1 ? number.compareTo(getElement((int) getN() - 2)) : 1;
+            if (comparison < 0) {
+                sorted = false;
+            } else if (comparison > 0) {
+                lastRun = 1;
+            } else if (lastRun < 2) {
+                // the replaced value was greater than the previous one, whose run is unknown
+                lastRun = -1;
+            }
+        }
+        reloadSpilled();
         BigDecimal replaced = ra.substituteMostRecentElement(number);
-        arrayIsChanged = true;
+        lastValueRemoved(replaced);
+        valueAdded(number);
+        dataChanged();
         return replaced;
     }
 
@@ -321,15 +1042,30 @@ public class DescriptiveStatistics implements StatisticalSummary {
         if (windowSize < 1 && windowSize != INFINITE_WINDOW) {
             throw new IllegalArgumentException("window size must be positive (" + windowSize + ")");
         }
+        if (spilled != null && windowSize != INFINITE_WINDOW) {
+            throw new IllegalStateException("window of the spilled values is infinite");
+        }
 
+        final boolean shrunk = windowSize != INFINITE_WINDOW
+                && (this.windowSize == INFINITE_WINDOW || windowSize < this.windowSize);
         this.windowSize = windowSize;
+        ra.setCircular(isRolling());
+        if (!isRolling()) {
+            // running statistics are not maintained for infinite window
+            rollingSums = null;
+            rollingMinMax = null;
+        }
 
         // We need to check to see if we need to discard elements
         // from the front of the array.  If the windowSize is less than
         // the current number of elements.
         if (windowSize != INFINITE_WINDOW && windowSize < ra.getNumElements()) {
-            ra.discardFrontElements(ra.getNumElements() - windowSize);
-            arrayIsChanged = true;
+            discardFront(ra.getNumElements() - windowSize);
+            dataChanged();
+        }
+        if (shrunk && ra.getCapacity() > windowSize + 1) {
+            // the circular storage of the window is not contracted by the rolling discards
+            ra.contract();
         }
     }
 
@@ -338,11 +1074,202 @@ public class DescriptiveStatistics implements StatisticalSummary {
      * If there are no elements then result will be 0.
      */
     public BigDecimal getSumsq() {
-        BigDecimal sum = BigDecimal.ZERO;
-        for (int i = 0; i < getN(); i++) {
-            sum = sum.add(ra.getElement(i).pow(2));
+        if (isRolling()) {
+            return getRollingSums().getSumsq();
+        }
+        return getAggregates().getSumsq();
+    }
+
+    /**
+     * Returns true if the data set is limited by the windowSize or by the windowDuration,
+     * the running statistics are maintained then.
+     */
+    private boolean isRolling() {
+        return windowSize != INFINITE_WINDOW || windowDuration != INFINITE_WINDOW;
+    }
+
+    /**
+     * Discards the {@code count} oldest values of the data set together with their timestamps.
+     */
+    private void discardFront(int count) {
+        if (count == 0) {
+            return;
+        }
+        if (rollingSums != null || rollingMinMax != null || percentileTree != null) {
+            // the discarded values are read under a single acquisition of the lock
+            ra.compute(0, count, new ResizableDecimalArray.Function<Void>() {
+                @Override
+                public Void evaluate(BigDecimal[] values, int begin, int length) {
+                    for (int i = begin; i < begin + length; i++) {
+                        frontValueRemoved(values[i]);
+                    }
+                    return null;
+                }
+            }, ResizableDecimalArray.NO_RESULT);
+        }
+        ra.discardFrontElements(count);
+        if (timestamps != null) {
+            timestamps.discardFront(count);
+        }
+    }
+
+    /**
+     * Seals the oldest values into segments of the spill storage while more than a segment of values
+     * is kept in memory.
+     */
+    private void spill() {
+        if (spilled == null) {
+            return;
+        }
+        final int segmentSize = spilled.getSegmentSize();
+        while (ra.getNumElements() > segmentSize) {
+            try {
+                spilled.spill(ra);
+            } catch (IOException e) {
+                throw new IllegalStateException("values can not be spilled", e);
+            }
+            ra.discardFrontElements(segmentSize);
+        }
+    }
+
+    /**
+     * Moves the most recent spilled segment back to memory if no values are kept in memory,
+     * so that the most recent value can be removed or replaced.
+     */
+    private void reloadSpilled() {
+        if (ra.getNumElements() == 0 && spilled != null && spilled.size() > 0) {
+            ra.addElements(spilled.reload());
+        }
+    }
+
+    /**
+     * Returns basic statistics of the data set calculated in a single pass over the stored values.
+     * The result is cached and reused until the data set is changed.
+     */
+    private AggregateSnapshot getAggregates() {
+        if (aggregates == null) {
+            aggregates = aggregationPool == null
+                    ? AggregateSnapshot.of(ra)
+                    : AggregateSnapshot.of(ra, aggregationPool, aggregationThreshold);
+            if (spilled != null) {
+                aggregates = AggregateSnapshot.merge(spilled.getTotals(), aggregates);
+            }
+        }
+        return aggregates;
+    }
+
+    /**
+     * Returns running sums of the window. They are calculated from scratch
+     * when requested for the first time and updated by each change of the window later.
+     */
+    private RollingSums getRollingSums() {
+        if (rollingSums == null) {
+            AggregateSnapshot snapshot = getAggregates();
+            rollingSums = new RollingSums(snapshot.getSum(), snapshot.getSumsq(), ra);
+        }
+        return rollingSums;
+    }
+
+    /**
+     * Returns minimum and maximum tracker of the window. It is built from the stored values
+     * when requested for the first time and updated by each change of the window later.
+     */
+    private RollingMinMax getRollingMinMax() {
+        if (rollingMinMax == null) {
+            rollingMinMax = new RollingMinMax(ra);
+        }
+        return rollingMinMax;
+    }
+
+    /**
+     * Returns sorted copy of the data set. It is built from the stored values
+     * when requested for the first time and updated by each change of the data set later.
+     */
+    private OrderStatisticTree getPercentileTree() {
+        if (percentileTree == null) {
+            percentileTree = new OrderStatisticTree(ra);
+        }
+        return percentileTree;
+    }
+
+    /**
+     * Updates the running statistics by the value which has been added to the end of the data set.
+     */
+    private void valueAdded(BigDecimal value) {
+        if (rollingSums != null) {
+            rollingSums.add(value);
+        }
+        if (rollingMinMax != null) {
+            rollingMinMax.push(value);
+        }
+        if (percentileTree != null) {
+            percentileTree.insert(value);
+        }
+    }
+
+    /**
+     * Updates the running statistics by the oldest value of the data set, which has been discarded.
+     */
+    private void frontValueRemoved(BigDecimal value) {
+        if (rollingSums != null) {
+            rollingSums.remove(value);
+        }
+        if (rollingMinMax != null) {
+            rollingMinMax.discardFront(1);
+        }
+        if (percentileTree != null) {
+            percentileTree.remove(value);
+        }
+    }
+
+    /**
+     * Updates the running statistics by the most recent value of the data set,
+     * which has been removed or replaced.
+     */
+    private void lastValueRemoved(BigDecimal value) {
+        if (rollingSums != null) {
+            rollingSums.remove(value);
+        }
+        if (rollingMinMax != null) {
+            rollingMinMax.discardLast();
+        }
+        if (percentileTree != null) {
+            percentileTree.remove(value);
+        }
+    }
+
+    /**
+     * Returns true if the values[from], ..., values[to - 1] are in non-decreasing order
+     * and are not less than the previous value, which may be null.
+     */
+    private static boolean isNonDecreasing(BigDecimal previous, BigDecimal[] values, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (previous != null && values[i].compareTo(previous) < 0) {
+                return false;
+            }
+            previous = values[i];
+        }
+        return true;
+    }
+
+    private static void flush(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Invalidates all cached statistics of the data set.
+     */
+    private void dataChanged() {
+        arrayIsChanged = true;
+        aggregates = null;
+        if (getN() <= 1) {
+            sorted = true;
+            lastRun = (int) getN();
         }
-        return sum;
     }
 
 }
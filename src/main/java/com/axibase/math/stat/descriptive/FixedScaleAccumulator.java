@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+/**
+ * Exact sum and sum of squares of values kept as unscaled {@code long}s at a fixed scale.
+ * <p>
+ * A value of at most {@code scale} fractional digits whose rescaled unscaled value is a {@code long}
+ * is added as an unscaled value and a scale without allocations: the sum is kept as a 128-bit two's complement number and
+ * the sum of squares as a 128-bit unsigned number with a count of carries out of its 128 bits,
+ * each made of {@code long} words.
+ * Values which can not be rescaled to a {@code long} are accumulated in BigDecimals.
+ * The unscaled value of a BigDecimal with a non-zero scale is read through a temporary BigDecimal
+ * of the zero scale, see {@link BinaryCodec#unscaledLong(BigDecimal)}, which is a single small allocation
+ * unless the JIT eliminates it, but no BigInteger is created.
+ * </p>
+ * <p>
+ * The totals have the same scale as BigDecimal sums of the same values would have:
+ * the maximal scale of values for the sum and twice of it for the sum of squares.
+ * </p>
+ */
+final class FixedScaleAccumulator {
+
+    static final long[] POWERS_OF_TEN = new long[19];
+
+    static {
+        POWERS_OF_TEN[0] = 1;
+        for (int i = 1; i < POWERS_OF_TEN.length; i++) {
+            POWERS_OF_TEN[i] = 10 * POWERS_OF_TEN[i - 1];
+        }
+    }
+
+    private static final long LOW_HALF = 0xFFFFFFFFL;
+
+    private final int scale;
+
+    /** High and low words of the sum, unscaled at the fixed scale. */
+    private long sumHigh = 0;
+    private long sumLow = 0;
+
+    /** Carries out of 128 bits, high and low words of the sum of squares, unscaled at twice the fixed scale. */
+    private long sumsqCarries = 0;
+    private long sumsqHigh = 0;
+    private long sumsqLow = 0;
+
+    /** Parts of the totals which can not be kept as unscaled longs. */
+    private BigDecimal sumRest = BigDecimal.ZERO;
+    private BigDecimal sumsqRest = BigDecimal.ZERO;
+
+    /** Scales of the totals as if they were BigDecimal sums, Integer.MIN_VALUE if nothing is added. */
+    private int sumScale = Integer.MIN_VALUE;
+    private int sumsqScale = Integer.MIN_VALUE;
+
+    FixedScaleAccumulator(int scale) {
+        this.scale = scale;
+    }
+
+    int getScale() {
+        return scale;
+    }
+
+    /**
+     * Adds the value {@code unscaled * 10^-valueScale}.
+     */
+    void add(long unscaled, int valueScale) {
+        sumScale = Math.max(sumScale, valueScale);
+        sumsqScale = Math.max(sumsqScale, 2 * valueScale);
+        final int shift = scale - valueScale;
+        if (shift < 0 || shift >= POWERS_OF_TEN.length) {
+            addRest(BigDecimal.valueOf(unscaled, valueScale));
+            return;
+        }
+        final long factor = POWERS_OF_TEN[shift];
+        if (unscaled > Long.MAX_VALUE / factor || unscaled < -(Long.MAX_VALUE / factor)) {
+            addRest(BigDecimal.valueOf(unscaled, valueScale));
+            return;
+        }
+        final long value = unscaled * factor;
+
+        // the value is sign extended to 128 bits
+        final long low = sumLow + value;
+        sumHigh += (value >> 63) + (unsignedLess(low, sumLow) ? 1 : 0);
+        sumLow = low;
+
+        final long magnitude = Math.abs(value);
+        final long squareLow = sumsqLow + magnitude * magnitude;
+        final long carry = unsignedLess(squareLow, sumsqLow) ? 1 : 0;
+        // the high word of a square is less than 2^62, so adding the carry to it does not overflow
+        final long squareHigh = sumsqHigh + multiplyHigh(magnitude, magnitude) + carry;
+        if (unsignedLess(squareHigh, sumsqHigh) || (carry != 0 && squareHigh == sumsqHigh)) {
+            sumsqCarries++;
+        }
+        sumsqLow = squareLow;
+        sumsqHigh = squareHigh;
+    }
+
+    /**
+     * Adds the value.
+     */
+    void add(BigDecimal value) {
+        if (value.precision() < 19) {
+            add(BinaryCodec.unscaledLong(value), value.scale());
+        } else {
+            sumScale = Math.max(sumScale, value.scale());
+            sumsqScale = Math.max(sumsqScale, 2 * value.scale());
+            addRest(value);
+        }
+    }
+
+    /**
+     * Adds the totals of other values.
+     */
+    void addTotals(BigDecimal otherSum, BigDecimal otherSumsq) {
+        sumScale = Math.max(sumScale, otherSum.scale());
+        sumsqScale = Math.max(sumsqScale, otherSumsq.scale());
+        sumRest = sumRest.add(otherSum);
+        sumsqRest = sumsqRest.add(otherSumsq);
+    }
+
+    private void addRest(BigDecimal value) {
+        sumRest = sumRest.add(value);
+        sumsqRest = sumsqRest.add(value.multiply(value));
+    }
+
+    void clear() {
+        sumHigh = 0;
+        sumLow = 0;
+        sumsqCarries = 0;
+        sumsqHigh = 0;
+        sumsqLow = 0;
+        sumRest = BigDecimal.ZERO;
+        sumsqRest = BigDecimal.ZERO;
+        sumScale = Integer.MIN_VALUE;
+        sumsqScale = Integer.MIN_VALUE;
+    }
+
+    /**
+     * Returns the exact sum of added values or null if nothing is added.
+     */
+    BigDecimal getSum() {
+        if (sumScale == Integer.MIN_VALUE) {
+            return null;
+        }
+        final BigInteger unscaled = BigInteger.valueOf(sumHigh).shiftLeft(64).add(unsigned(sumLow));
+        return new BigDecimal(unscaled, scale).add(sumRest).setScale(sumScale);
+    }
+
+    /**
+     * Returns the exact sum of squares of added values or null if nothing is added.
+     */
+    BigDecimal getSumsq() {
+        if (sumsqScale == Integer.MIN_VALUE) {
+            return null;
+        }
+        final BigInteger unscaled = unsigned(sumsqCarries).shiftLeft(64)
+                .add(unsigned(sumsqHigh)).shiftLeft(64).add(unsigned(sumsqLow));
+        return new BigDecimal(unscaled, 2 * scale).add(sumsqRest).setScale(sumsqScale);
+    }
+
+    /**
+     * Returns the high word of the unsigned 128-bit product of two unsigned {@code long}s.
+     */
+    static long multiplyHigh(long x, long y) {
+        final long x0 = x & LOW_HALF;
+        final long x1 = x >>> 32;
+        final long y0 = y & LOW_HALF;
+        final long y1 = y >>> 32;
+        final long p01 = x0 * y1;
+        final long p10 = x1 * y0;
+        final long middle = ((x0 * y0) >>> 32) + (p01 & LOW_HALF) + (p10 & LOW_HALF);
+        return x1 * y1 + (p01 >>> 32) + (p10 >>> 32) + (middle >>> 32);
+    }
+
+    private static boolean unsignedLess(long x, long y) {
+        return (x ^ Long.MIN_VALUE) < (y ^ Long.MIN_VALUE);
+    }
+
+    private static BigInteger unsigned(long value) {
+        final BigInteger result = BigInteger.valueOf(value & Long.MAX_VALUE);
+        return value < 0 ? result.setBit(63) : result;
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.math.BigDecimal;
+
+/**
+ * Multiset of BigDecimals organized as a treap (randomized balanced binary search tree),
+ * where each node knows the size of its subtree.
+ * Insertion, removal and selection of the k-th smallest element take O(log n) expected time.
+ * <p>
+ * Elements are ordered by their numeric values, numerically equal elements are ordered by scale.
+ * So elements which are equal in this order are equal in the sense of {@link BigDecimal#equals}
+ * and removal of any of them leaves the same multiset.
+ * </p>
+ */
+final class OrderStatisticTree implements RankSelector {
+
+    private Node root;
+
+    /** State of the xorshift generator of node priorities. */
+    private int seed = 0x2545F491;
+
+    /**
+     * Creates a tree containing the values currently stored in the array.
+     */
+    OrderStatisticTree(ResizableDecimalArray values) {
+        values.compute(new ResizableDecimalArray.Function<Void>() {
+            @Override
+            public Void evaluate(BigDecimal[] array, int begin, int length) {
+                for (int i = begin; i < begin + length; i++) {
+                    insert(array[i]);
+                }
+                return null;
+            }
+        }, ResizableDecimalArray.NO_RESULT);
+    }
+
+    void insert(BigDecimal value) {
+        root = insert(root, new Node(value, nextPriority()));
+    }
+
+    /**
+     * Removes one element equal to the value.
+     * @return false if there is no such element in the tree.
+     */
+    boolean remove(BigDecimal value) {
+        final int size = size();
+        root = remove(root, value);
+        return size() < size;
+    }
+
+    @Override
+    public int size() {
+        return size(root);
+    }
+
+    @Override
+    public BigDecimal select(int k) {
+        if (k < 0 || k >= size()) {
+            throw new IllegalArgumentException("Attempt to select element with index: " + k +
+                    " in zero based indexed tree of size " + size());
+        }
+        Node node = root;
+        while (true) {
+            final int leftSize = size(node.left);
+            if (k < leftSize) {
+                node = node.left;
+            } else if (k == leftSize) {
+                return node.value;
+            } else {
+                k -= leftSize + 1;
+                node = node.right;
+            }
+        }
+    }
+
+    private static Node insert(Node node, Node item) {
+        if (node == null) {
+            return item;
+        }
+        if (compare(item.value, node.value) < 0) {
+            node.left = insert(node.left, item);
+            if (node.left.priority > node.priority) {
+                node = rotateRight(node);
+            }
+        } else {
+            node.right = insert(node.right, item);
+            if (node.right.priority > node.priority) {
+                node = rotateLeft(node);
+            }
+        }
+        node.update();
+        return node;
+    }
+
+    private static Node remove(Node node, BigDecimal value) {
+        if (node == null) {
+            return null;
+        }
+        final int comparison = compare(value, node.value);
+        if (comparison < 0) {
+            node.left = remove(node.left, value);
+        } else if (comparison > 0) {
+            node.right = remove(node.right, value);
+        } else {
+            return merge(node.left, node.right);
+        }
+        node.update();
+        return node;
+    }
+
+    /**
+     * Merges two trees, all elements of the left tree are not greater than elements of the right one.
+     */
+    private static Node merge(Node left, Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            left.update();
+            return left;
+        }
+        right.left = merge(left, right.left);
+        right.update();
+        return right;
+    }
+
+    private static Node rotateRight(Node node) {
+        final Node left = node.left;
+        node.left = left.right;
+        left.right = node;
+        node.update();
+        return left;
+    }
+
+    private static Node rotateLeft(Node node) {
+        final Node right = node.right;
+        node.right = right.left;
+        right.left = node;
+        node.update();
+        return right;
+    }
+
+    private static int compare(BigDecimal a, BigDecimal b) {
+        final int comparison = a.compareTo(b);
+        return comparison != 0 ? comparison : Integer.compare(a.scale(), b.scale());
+    }
+
+    private static int size(Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private int nextPriority() {
+        seed ^= seed << 13;
+        seed ^= seed >>> 17;
+        seed ^= seed << 5;
+        return seed;
+    }
+
+    private static final class Node {
+        private final BigDecimal value;
+        private final int priority;
+        private int size = 1;
+        private Node left;
+        private Node right;
+
+        Node(BigDecimal value, int priority) {
+            this.value = value;
+            this.priority = priority;
+        }
+
+        void update() {
+            size = 1 + size(left) + size(right);
+        }
+    }
+}
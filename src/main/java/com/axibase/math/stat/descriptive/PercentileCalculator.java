@@ -25,9 +25,10 @@ import java.util.Arrays;
  * An instance of the class stores the copy of an array of BigDecimal values provided to the constructor.
  * Method evaluate(p) calculates the exact value of p-th percentile, 0 <= p <= 1.
  * An argument p can be String or BigDecimal number.
+ * Method evaluate(p[]) calculates several percentiles at once, sharing the partitioning of the data.
  * Method select(k) returns k-th smallest element of the data array.
  */
-public class PercentileCalculator {
+public class PercentileCalculator implements RankSelector {
 
     /** Values. */
     private final BigDecimal[] storedData;
@@ -47,17 +48,28 @@ public class PercentileCalculator {
     /** Minimum selection size for insertion sort rather than selection. */
     private static final int MIN_SELECT_SIZE = 15;
 
-    /** This is number of values + 1, and is used to calculate position (index) of percentile in sorted data. */
-    private final BigDecimal multiplier;
-
     public PercentileCalculator(BigDecimal[] values) {
+        this(values, true);
+    }
+
+    /**
+     * Creates a calculator which works on the copy of the provided array or on the array itself.
+     */
+    private PercentileCalculator(BigDecimal[] values, boolean copy) {
         if (values == null) {
             throw new NullPointerException("BigDecimal array argument of the PercentileCalculator constructor is null.");
         }
-        this.storedData = Arrays.copyOf(values, values.length);
+        this.storedData = copy ? Arrays.copyOf(values, values.length) : values;
         cachedPivots = new int[PIVOTS_HEAP_LENGTH];
         Arrays.fill(cachedPivots, -1);
-        multiplier = new BigDecimal(storedData.length + 1);
+    }
+
+    /**
+     * Creates a calculator which takes the ownership of the provided array instead of copying it.
+     * The array is reordered by the calculator, so the caller must not use it anymore.
+     */
+    static PercentileCalculator adopt(BigDecimal[] values) {
+        return new PercentileCalculator(values, false);
     }
 
     /**
@@ -84,27 +96,38 @@ public class PercentileCalculator {
      * If there are no data the method returns null.
      */
     public BigDecimal evaluate(final BigDecimal p) {
-        if (storedData.length == 0) {
+        return evaluate(this, p);
+    }
+
+    /**
+     * Evaluates p-th percentile of the data set by the algorithm described in the {@link #evaluate(BigDecimal)}.
+     * The k-th smallest elements of the data set are obtained from the provided selector.
+     * If there are no data the method returns null.
+     */
+    static BigDecimal evaluate(RankSelector data, final BigDecimal p) {
+        final int length = data.size();
+        if (length == 0) {
             return null;
         }
-        if (storedData.length == 1) {
-            return storedData[0];
+        if (length == 1) {
+            return data.select(0);
         }
-        final BigDecimal pos = p.multiply(multiplier).movePointLeft(2);
+        // the number of values + 1 is used to calculate position (index) of percentile in sorted data
+        final BigDecimal pos = p.multiply(BigDecimal.valueOf(length + 1)).movePointLeft(2);
         final BigDecimal floorPos = pos.setScale(0, BigDecimal.ROUND_DOWN);
         final int intPos = floorPos.intValue();
         final BigDecimal diff = pos.subtract(floorPos);
 
         if (intPos < 1) {
-            return select(0);
+            return data.select(0);
         }
-        if (intPos >= storedData.length) {
-            return select(storedData.length - 1);
+        if (intPos >= length) {
+            return data.select(length - 1);
         }
 
         // Indexing in the array is zero based.
-        final BigDecimal lower = select(intPos - 1);
-        final BigDecimal upper = select(intPos);
+        final BigDecimal lower = data.select(intPos - 1);
+        final BigDecimal upper = data.select(intPos);
         return lower.add(diff.multiply((upper.subtract(lower))));
     }
 
@@ -112,12 +135,81 @@ public class PercentileCalculator {
         return evaluate(new BigDecimal(p));
     }
 
+    /**
+     * Returns p-th percentiles of the stored data for each p of the provided array, 0 <= p <= 100.
+     * The result is the same as the result of the {@link #evaluate(BigDecimal)} method called for each p,
+     * but the elements required by all percentiles are selected together:
+     * the requested ranks are sorted and partitioning of the data recurses once into each part
+     * containing some of the ranks, so k percentiles cost roughly one O(n log k) pass
+     * instead of k independent selections.
+     * If there are no data the method returns an array of nulls.
+     */
+    public BigDecimal[] evaluate(final BigDecimal[] ps) {
+        final int length = storedData.length;
+        if (length > 1) {
+            final int[] ranks = new int[2 * ps.length];
+            int count = 0;
+            for (BigDecimal p : ps) {
+                final int intPos = p.multiply(BigDecimal.valueOf(length + 1)).movePointLeft(2).intValue();
+                if (intPos < 1) {
+                    ranks[count++] = 0;
+                } else if (intPos >= length) {
+                    ranks[count++] = length - 1;
+                } else {
+                    ranks[count++] = intPos - 1;
+                    ranks[count++] = intPos;
+                }
+            }
+            Arrays.sort(ranks, 0, count);
+            select(ranks, 0, count, 0, length, 0);
+        }
+
+        // required elements are at their places in the sorted order now
+        final RankSelector selected = new RankSelector() {
+            @Override
+            public int size() {
+                return storedData.length;
+            }
+
+            @Override
+            public BigDecimal select(int k) {
+                return storedData[k];
+            }
+        };
+        final BigDecimal[] result = new BigDecimal[ps.length];
+        for (int i = 0; i < ps.length; i++) {
+            result[i] = evaluate(selected, ps[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns p-th percentiles of the data set for each p of the provided array, 0 <= p <= 100.
+     * The k-th smallest elements of the data set are obtained from the provided selector.
+     */
+    static BigDecimal[] evaluate(RankSelector data, final BigDecimal[] ps) {
+        final BigDecimal[] result = new BigDecimal[ps.length];
+        for (int i = 0; i < ps.length; i++) {
+            result[i] = evaluate(data, ps[i]);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of values in the data set.
+     */
+    @Override
+    public int size() {
+        return storedData.length;
+    }
+
     /**
      * Select K<sup>th</sup> value in the array in ascending order.
      *
      * @param k the index whose value in the array is of interest
      * @return K<sup>th</sup> value
      */
+    @Override
     public BigDecimal select(final int k) {
 
         int begin = 0;
@@ -161,6 +253,60 @@ public class PercentileCalculator {
     }
 
 
+    /**
+     * Moves elements with the provided ranks to their places in the sorted order.
+     * The ranks[from], ..., ranks[to - 1] are sorted and lie in the slice of the array
+     * from begin index (inclusive) up to end index (exclusive).
+     * The node is the index of the slice pivot in the heap of cached pivots.
+     * Partitioning recurses only if both parts of a slice contain some of the ranks,
+     * so the depth of the recursion does not exceed the number of ranks.
+     */
+    private void select(final int[] ranks, int from, int to, int begin, int end, int node) {
+        while (end - begin > MIN_SELECT_SIZE) {
+            final int pivot;
+
+            if (node < cachedPivots.length && cachedPivots[node] >= 0) {
+                pivot = cachedPivots[node];
+            } else {
+                pivot = partition(begin, end, pivotIndex(storedData, begin, end));
+                if (node < cachedPivots.length) {
+                    cachedPivots[node] = pivot;
+                }
+            }
+
+            // ranks[from, split) are in the left partition, ranks[rightFrom, to) are in the right one
+            int split = from;
+            while (split < to && ranks[split] < pivot) {
+                split++;
+            }
+            int rightFrom = split;
+            while (rightFrom < to && ranks[rightFrom] == pivot) {
+                rightFrom++;
+            }
+
+            final int leftNode = Math.min(2 * node + 1, cachedPivots.length);
+            final int rightNode = Math.min(2 * node + 2, cachedPivots.length);
+            if (split > from && rightFrom < to) {
+                select(ranks, from, split, begin, pivot, leftNode);
+                from = rightFrom;
+                begin = pivot + 1;
+                node = rightNode;
+            } else if (split > from) {
+                to = split;
+                end = pivot;
+                node = leftNode;
+            } else if (rightFrom < to) {
+                from = rightFrom;
+                begin = pivot + 1;
+                node = rightNode;
+            } else {
+                // all ranks are equal to the pivot
+                return;
+            }
+        }
+        Arrays.sort(storedData, begin, end);
+    }
+
     /**
      * Choose the pivot value among values from begin index (inclusive) up to end index (exclusive).
      * The "median of 3 pivoting" strategy is used. Returns the index of the pivot element.
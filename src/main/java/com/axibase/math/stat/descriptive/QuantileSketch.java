@@ -0,0 +1,275 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Approximate percentiles of a stream of values in bounded memory, a variant of the KLL sketch
+ * (Karnin, Lang, Liberty "Optimal Quantile Approximation in Streams").
+ * <p>
+ * Values are kept in a hierarchy of compactors. A value stored at the level h represents 2<sup>h</sup>
+ * values of the stream. When a compactor exceeds its capacity, its values are sorted and every other
+ * of them (odd or even ones, chosen at random) is moved to the next level, the rest are discarded.
+ * The capacity of the top level is {@code k}, capacities of lower levels decrease geometrically,
+ * so the sketch keeps O(k) values regardless of the stream length.
+ * The rank error of a percentile is about {@code 1.7 / k} of the number of values with high probability,
+ * for example about 1% for the default {@code k = 200}.
+ * </p>
+ * <p>
+ * Sketches with the same {@code k} are merged level by level, the merged sketch has the same
+ * accuracy guarantee as the sketch of the concatenated stream.
+ * The minimum and the maximum of the stream are kept exactly.
+ * </p>
+ * Note: this class is not threadsafe.
+ */
+public class QuantileSketch {
+
+    /** Default value of the accuracy parameter. */
+    public static final int DEFAULT_K = 200;
+
+    /** Capacity of the lowest levels. */
+    private static final int MIN_CAPACITY = 8;
+
+    /** Ratio of capacities of the adjacent levels. */
+    private static final double CAPACITY_RATIO = 2.0 / 3.0;
+
+    private final int k;
+
+    /** Compactors, the values at the i-th level have weight 2<sup>i</sup>. */
+    private final List<List<BigDecimal>> levels = new ArrayList<>();
+
+    /** Number of stored values at all levels. */
+    private int size = 0;
+
+    private long n = 0;
+    private BigDecimal min = null;
+    private BigDecimal max = null;
+
+    private final Random random;
+
+    /**
+     * Creates sketch with the default accuracy parameter.
+     */
+    public QuantileSketch() {
+        this(DEFAULT_K);
+    }
+
+    /**
+     * Creates sketch with the provided accuracy parameter,
+     * the rank error is inversely proportional to {@code k} and the memory used is proportional to it.
+     * @throws IllegalArgumentException if {@code k < 8}.
+     */
+    public QuantileSketch(int k) {
+        this(k, new Random());
+    }
+
+    QuantileSketch(int k, Random random) {
+        if (k < MIN_CAPACITY) {
+            throw new IllegalArgumentException("accuracy parameter must be at least " + MIN_CAPACITY + " (" + k + ")");
+        }
+        this.k = k;
+        this.random = random;
+        levels.add(new ArrayList<BigDecimal>());
+    }
+
+    /**
+     * Adds value of the stream to the sketch.
+     */
+    public void update(BigDecimal value) {
+        if (n == 0) {
+            min = value;
+            max = value;
+        } else {
+            min = value.min(min);
+            max = value.max(max);
+        }
+        n++;
+        levels.get(0).add(value);
+        size++;
+        compress();
+    }
+
+    /**
+     * Adds all values summarized by the other sketch to this one.
+     * The other sketch is not modified.
+     * @throws IllegalArgumentException if the sketches have different accuracy parameters.
+     */
+    public void merge(QuantileSketch other) {
+        if (other.k != k) {
+            throw new IllegalArgumentException("can not merge sketches with different accuracy parameters ("
+                    + k + " and " + other.k + ")");
+        }
+        if (other.n == 0) {
+            return;
+        }
+        if (n == 0) {
+            min = other.min;
+            max = other.max;
+        } else {
+            min = other.min.min(min);
+            max = other.max.max(max);
+        }
+        n += other.n;
+        while (levels.size() < other.levels.size()) {
+            levels.add(new ArrayList<BigDecimal>());
+        }
+        for (int h = 0; h < other.levels.size(); h++) {
+            levels.get(h).addAll(other.levels.get(h));
+            size += other.levels.get(h).size();
+        }
+        compress();
+    }
+
+    /**
+     * Removes all values from the sketch.
+     */
+    public void clear() {
+        levels.clear();
+        levels.add(new ArrayList<BigDecimal>());
+        size = 0;
+        n = 0;
+        min = null;
+        max = null;
+    }
+
+    /**
+     * Returns the number of values of the stream.
+     */
+    public long getN() {
+        return n;
+    }
+
+    public int getK() {
+        return k;
+    }
+
+    /**
+     * Returns the approximate p-th percentile of the stream, 0 <= p <= 100:
+     * the smallest stored value whose estimated rank is at least {@code p * n / 100}.
+     * The minimum and the maximum are returned exactly for p = 0 and p = 100.
+     * If there are no values the method returns null.
+     */
+    public BigDecimal getPercentile(BigDecimal p) {
+        if (n == 0) {
+            return null;
+        }
+        if (p.signum() <= 0) {
+            return min;
+        }
+        if (p.compareTo(BigDecimal.valueOf(100)) >= 0) {
+            return max;
+        }
+        final WeightedValue[] sorted = new WeightedValue[size];
+        int count = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            for (BigDecimal value : levels.get(h)) {
+                sorted[count++] = new WeightedValue(value, 1L << h);
+            }
+        }
+        Arrays.sort(sorted);
+
+        // the total weight of stored values is exactly n
+        final BigDecimal rank = p.multiply(BigDecimal.valueOf(n)).movePointLeft(2);
+        long cumulative = 0;
+        for (WeightedValue weighted : sorted) {
+            cumulative += weighted.weight;
+            if (rank.compareTo(BigDecimal.valueOf(cumulative)) <= 0) {
+                return weighted.value;
+            }
+        }
+        return max;
+    }
+
+    /**
+     * Compacts levels exceeding their capacities until the total number of stored values fits.
+     */
+    private void compress() {
+        if (size < totalCapacity()) {
+            return;
+        }
+        for (int h = 0; h < levels.size(); h++) {
+            final List<BigDecimal> level = levels.get(h);
+            if (level.size() >= capacity(h)) {
+                if (h + 1 == levels.size()) {
+                    levels.add(new ArrayList<BigDecimal>());
+                }
+                compact(level, levels.get(h + 1));
+                if (size < totalCapacity()) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Moves every other sorted value of the level to the next level and clears the level.
+     * If the number of values is odd, the largest one stays at the level.
+     */
+    private void compact(List<BigDecimal> level, List<BigDecimal> next) {
+        final BigDecimal[] values = level.toArray(new BigDecimal[level.size()]);
+        Arrays.sort(values);
+        final int even = values.length & ~1;
+        for (int i = random.nextBoolean() ? 1 : 0; i < even; i += 2) {
+            next.add(values[i]);
+        }
+        level.clear();
+        if (even < values.length) {
+            level.add(values[even]);
+        }
+        size -= even / 2;
+    }
+
+    /**
+     * Returns capacity of the level, the top level has the capacity k.
+     */
+    private int capacity(int h) {
+        final int depth = levels.size() - 1 - h;
+        return Math.max(MIN_CAPACITY, (int) Math.ceil(k * Math.pow(CAPACITY_RATIO, depth)));
+    }
+
+    private int totalCapacity() {
+        int total = 0;
+        for (int h = 0; h < levels.size(); h++) {
+            total += capacity(h);
+        }
+        return total;
+    }
+
+    /**
+     * Stored value with the number of stream values it represents.
+     */
+    private static final class WeightedValue implements Comparable<WeightedValue> {
+        private final BigDecimal value;
+        private final long weight;
+
+        WeightedValue(BigDecimal value, long weight) {
+            this.value = value;
+            this.weight = weight;
+        }
+
+        @Override
+        public int compareTo(WeightedValue other) {
+            return value.compareTo(other.value);
+        }
+    }
+}
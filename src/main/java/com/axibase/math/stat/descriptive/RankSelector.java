@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.math.BigDecimal;
+
+/**
+ * A data set which is able to select its k-th smallest element.
+ * The PercentileCalculator uses any implementation of this interface to evaluate percentiles,
+ * so percentiles are calculated with the same code regardless of how the data set is stored.
+ */
+interface RankSelector {
+
+    /**
+     * Returns the number of elements in the data set.
+     */
+    int size();
+
+    /**
+     * Returns the k-th smallest element of the data set, 0 <= k < size().
+     */
+    BigDecimal select(int k);
+}
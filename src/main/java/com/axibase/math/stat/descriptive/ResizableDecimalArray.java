@@ -17,13 +17,16 @@
 
 package com.axibase.math.stat.descriptive;
 
+import java.io.IOException;
 import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
 import java.util.Arrays;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * A variable length BigDecimals storage that automatically handles expanding and contracting as elements are added and removed.
- * It is simplified version of org.apache.commons.math4.util.ResizableDoubleArray which hasn't
- * the {@code compute(Function f)} method.
+ * It is simplified version of org.apache.commons.math4.util.ResizableDoubleArray.
  * The array automatically handles expanding and contracting its internal storage
  * array as elements are added and removed.
  */
@@ -41,6 +44,15 @@ public class ResizableDecimalArray {
      */
     private static final double DEFAULT_CONTRACTION_DELTA = 0.5;
 
+    /**
+     * Binary logarithm of the number of positions of a chunk of the {@code CHUNKED} storage.
+     * A chunk of 16384 references is small enough to be allocated as a regular object by any collector.
+     */
+    private static final int CHUNK_SHIFT = 14;
+
+    /** Number of positions of a chunk of the {@code CHUNKED} storage. */
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
     /**
      * The contraction criteria determines when the internal array will be
      * contracted to fit the number of elements contained in the element
@@ -64,9 +76,45 @@ public class ResizableDecimalArray {
      */
     private ExpansionMode expansionMode = ExpansionMode.MULTIPLICATIVE;
 
-    /** The internal storage array. */
+    /** Determines how the values are kept in the internal storage. */
+    private StorageMode storageMode = StorageMode.DECIMAL;
+
+    /** The internal storage array, null while the values are packed into the compact storage arrays. */
     private BigDecimal[] internalArray;
 
+    /**
+     * Unscaled values of the compact storage, null unless the values are packed.
+     * The element {@code unscaledArray[i]} together with {@code scaleArray[i]} represents the same value as
+     * {@code internalArray[i]} would.
+     */
+    private long[] unscaledArray;
+
+    /** Scales of the compact storage, null unless the values are packed. */
+    private byte[] scaleArray;
+
+    /**
+     * Packed values kept outside of the heap, null unless the values are packed into the {@code OFF_HEAP} storage
+     * or are read from the region provided to the {@link #map(ByteBuffer, int)}.
+     * The buffer contains the big-endian unscaled values of all positions followed by their scales.
+     */
+    private ByteBuffer packedValues;
+
+    /**
+     * True if the {@code packedValues} are the region provided to the {@link #map(ByteBuffer, int)},
+     * which is never modified and is copied to the storage of the storage mode by the first modification.
+     */
+    private boolean packedReadOnly;
+
+    /**
+     * Directory of the chunks of the {@code CHUNKED} storage, null in other modes.
+     * The position {@code p} is stored at {@code chunks[p >> CHUNK_SHIFT][p & (CHUNK_SIZE - 1)]}.
+     * The first {@code chunkCount} chunks are allocated, the startIndex is always within the first chunk.
+     */
+    private BigDecimal[][] chunks;
+
+    /** Number of allocated chunks of the {@code CHUNKED} storage. */
+    private int chunkCount;
+
     /**
      * The number of addressable elements in the array.  Note that this
      * has nothing to do with the length of the internal storage array.
@@ -80,12 +128,99 @@ public class ResizableDecimalArray {
      */
     private int startIndex = 0;
 
+    /**
+     * True if the storage is used as a circular buffer: the addressable elements which do not fit
+     * between the startIndex and the end of the storage continue from its beginning.
+     */
+    private boolean circular = false;
+
+    /**
+     * Guards the storage: readers share the read lock and do not block each other,
+     * modifications take the write lock.
+     */
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
     /** Specification of expansion algorithm. */
     public enum ExpansionMode {
         MULTIPLICATIVE,
         ADDITIVE
     }
 
+    /**
+     * Specification of the internal storage.
+     * <ul>
+     *  <li>{@code DECIMAL} - references to the added BigDecimal instances are stored.</li>
+     *  <li>{@code COMPACT} - each value is packed into a {@code long} unscaled value and a {@code byte} scale,
+     *  that takes 9 bytes per value instead of a reference and a BigDecimal instance.
+     *  The values are restored by the {@link BigDecimal#valueOf(long, int)} on each read.
+     *  If a value which does not fit (null, unscaled value exceeds the {@code long} range or scale exceeds
+     *  the {@code byte} range) is added, the storage is converted to the {@code DECIMAL} one transparently
+     *  and stays so until the array is cleared.
+     *  Elements allocated but never set by the {@link #setElement(int, BigDecimal)} or
+     *  {@link #setNumElements(int)} are zeros instead of nulls in this mode.</li>
+     *  <li>{@code OFF_HEAP} - the values are packed the same way as in the {@code COMPACT} mode,
+     *  but into a direct {@link ByteBuffer}, so that the heap holds no per-value data at all.
+     *  The direct memory is released when the buffer is garbage collected after the array
+     *  is expanded, contracted, converted or collected itself.</li>
+     *  <li>{@code CHUNKED} - references to the added BigDecimal instances are stored in chunks of a fixed size
+     *  listed in a directory. The storage grows by allocating one more chunk and releases whole chunks
+     *  when elements are discarded from the front, so the stored values are never copied to a larger array
+     *  and no array longer than a chunk is allocated for them.
+     *  The expansion factor, the contraction criterion and the circular mode do not apply to this storage.</li>
+     * </ul>
+     */
+    public enum StorageMode {
+        DECIMAL,
+        COMPACT,
+        OFF_HEAP,
+        CHUNKED
+    }
+
+    /**
+     * A function of a range of values, which is evaluated on the storage by the {@link #compute(Function)}.
+     *
+     * @param <T> type of the result.
+     */
+    public interface Function<T> {
+
+        /**
+         * Evaluates the function on the {@code length} values of the array starting from the {@code begin} index.
+         * The function must neither modify the array nor keep a reference to it after the evaluation.
+         *
+         * @param values array containing the values.
+         * @param begin index of the first value.
+         * @param length number of values.
+         * @return the result.
+         */
+        T evaluate(BigDecimal[] values, int begin, int length);
+    }
+
+    /**
+     * Merges results of a {@link Function} evaluated on consecutive parts of the stored values,
+     * see {@link #compute(Function, Combiner)}.
+     *
+     * @param <T> type of the result.
+     */
+    public interface Combiner<T> {
+
+        /**
+         * Merges the results of two adjacent parts, the left part precedes the right one.
+         *
+         * @param left result of the preceding part.
+         * @param right result of the following part.
+         * @return the result of both parts.
+         */
+        T combine(T left, T right);
+    }
+
+    /** Combiner of functions which are evaluated for their side effects only. */
+    static final Combiner<Void> NO_RESULT = new Combiner<Void>() {
+        @Override
+        public Void combine(Void left, Void right) {
+            return null;
+        }
+    };
+
     /**
      * Creates an instance with default properties.
      * <ul>
@@ -114,6 +249,23 @@ public class ResizableDecimalArray {
         this(initialCapacity, DEFAULT_EXPANSION_FACTOR);
     }
 
+    /**
+     * Creates an instance with the specified initial capacity and storage mode.
+     * Other properties take default values:
+     * <ul>
+     *  <li>{@code expansionMode = MULTIPLICATIVE}</li>
+     *  <li>{@code expansionFactor = 2.0}</li>
+     *  <li>{@code contractionCriterion = 2.5}</li>
+     * </ul>
+     * @param initialCapacity Initial size of the internal storage array.
+     * @param storageMode Storage mode.
+     * @throws IllegalArgumentException if {@code initialCapacity <= 0}.
+     */
+    public ResizableDecimalArray(int initialCapacity, StorageMode storageMode) throws IllegalArgumentException {
+        this(initialCapacity, DEFAULT_EXPANSION_FACTOR);
+        setStorageMode(storageMode);
+    }
+
     /**
      * Creates an instance with the specified initial capacity
      * and expansion factor.
@@ -239,11 +391,61 @@ public class ResizableDecimalArray {
                 initialArray);
     }
 
+    /**
+     * Creates an instance which uses the provided array as its internal storage instead of copying it,
+     * all elements of the array are addressable.
+     * The caller must not modify the array afterwards.
+     * Other properties take default values:
+     * <ul>
+     *  <li>{@code expansionMode = MULTIPLICATIVE}</li>
+     *  <li>{@code expansionFactor = 2.0}</li>
+     *  <li>{@code contractionCriterion = 2.5}</li>
+     * </ul>
+     *
+     * @param values array to adopt
+     * @return the array which is backed by the provided one
+     * @throws IllegalArgumentException if values is null
+     */
+    public static ResizableDecimalArray adopt(BigDecimal[] values) throws IllegalArgumentException {
+        if (values == null) {
+            throw new IllegalArgumentException("array to adopt should be not null");
+        }
+        final ResizableDecimalArray result = new ResizableDecimalArray();
+        if (values.length > 0) {
+            // an empty array can not be expanded by the expansion factor, so the default storage is kept
+            result.internalArray = values;
+            result.numElements = values.length;
+        }
+        return result;
+    }
+
+    /**
+     * Creates a {@code COMPACT} array whose values are read from the provided region instead of copying them,
+     * so that the array is created in constant time. The region must contain {@code count} big-endian
+     * unscaled values followed by their scales, the layout written by the {@link #writeCompact}.
+     * The values are copied to the heap by the first modification of the array.
+     *
+     * @param values region to read values from, e.g. a {@link java.nio.MappedByteBuffer} slice
+     * @param count number of values in the region
+     * @return the array which is backed by the region
+     */
+    static ResizableDecimalArray map(ByteBuffer values, int count) {
+        final ResizableDecimalArray result = new ResizableDecimalArray(DEFAULT_INITIAL_CAPACITY, StorageMode.COMPACT);
+        if (count > 0) {
+            result.unscaledArray = null;
+            result.scaleArray = null;
+            result.packedValues = values;
+            result.packedReadOnly = true;
+            result.numElements = count;
+        }
+        return result;
+    }
+
     /**
      * Copy constructor. Creates a new ResizableDecimalArray that is a copy of the original.
      * But internal array stores links to the same (!) instances of BigDecimals as the original.
      * As BigDecimals are immutable it is admissible.
-     * Needs to acquire synchronization lock on original. Original may not be null;
+     * Needs to acquire the read lock of the original. Original may not be null;
      * otherwise a {@link IllegalArgumentException} is thrown.
      *
      * @param original array to copy
@@ -261,11 +463,25 @@ public class ResizableDecimalArray {
      *
      * @param value Value to be added to end of array.
      */
-    public synchronized void addElement(BigDecimal value) {
-        if (internalArray.length <= startIndex + numElements) {
-            expand();
+    public void addElement(BigDecimal value) {
+        lock.writeLock().lock();
+        try {
+            if (chunks != null) {
+                // the chunk is allocated by the store if the last one is full
+                store(startIndex + numElements++, value);
+                return;
+            }
+            if (circular) {
+                if (numElements == capacity()) {
+                    relocate(expandedCapacity());
+                }
+            } else if (capacity() <= startIndex + numElements) {
+                expand();
+            }
+            store(position(numElements++), value);
+        } finally {
+            lock.writeLock().unlock();
         }
-        internalArray[startIndex + numElements++] = value;
     }
 
     /**
@@ -273,13 +489,61 @@ public class ResizableDecimalArray {
      *
      * @param values Values to be added to end of array.
      */
-    public synchronized void addElements(BigDecimal[] values) {
-        final BigDecimal[] tempArray = new BigDecimal[numElements + values.length + 1];
-        System.arraycopy(internalArray, startIndex, tempArray, 0, numElements);
-        System.arraycopy(values, 0, tempArray, numElements, values.length);
-        internalArray = tempArray;
-        startIndex = 0;
-        numElements += values.length;
+    public void addElements(BigDecimal[] values) {
+        lock.writeLock().lock();
+        try {
+            addElements(values, 0, values.length);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adds the elements {@code values[from], ..., values[to - 1]} to the end of this expandable array.
+     * The internal storage array is expanded by the expansion factor, so that a sequence of
+     * such calls takes amortized constant time per added element.
+     *
+     * @param values Values to be added to end of array.
+     * @param from Index of the first value to add, inclusive.
+     * @param to Index of the last value to add, exclusive.
+     * @throws IllegalArgumentException if the range is not within the {@code values} array.
+     */
+    public void addElements(BigDecimal[] values, int from, int to) throws IllegalArgumentException {
+        lock.writeLock().lock();
+        try {
+            if (from < 0 || to > values.length || from > to) {
+                throw new IllegalArgumentException("range [" + from + ", " + to + ") is out of array of "
+                        + values.length + " elements");
+            }
+            final int count = to - from;
+            if (chunks != null) {
+                allocateChunks(startIndex + numElements + count);
+                copyToChunks(values, from, startIndex + numElements, count);
+                numElements += count;
+                return;
+            }
+            if (internalArray == null && !fitAll(values, from, count)) {
+                inflate();
+            }
+            if ((circular ? numElements : startIndex + numElements) + count > capacity()) {
+                relocate(Math.max(expandedCapacity(), numElements + count + 1));
+            } else if (packedReadOnly) {
+                unmap();
+            }
+            if (internalArray == null) {
+                for (int i = 0; i < count; i++) {
+                    pack(position(numElements + i), values[from + i]);
+                }
+            } else {
+                final int end = position(numElements);
+                final int first = Math.min(count, capacity() - end);
+                System.arraycopy(values, from, internalArray, end, first);
+                System.arraycopy(values, from + first, internalArray, 0, count - first);
+            }
+            numElements += count;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -298,23 +562,46 @@ public class ResizableDecimalArray {
      * @return the value which has been discarded or "pushed" out of the array
      * by this rolling insert.
      */
-    public synchronized BigDecimal addElementRolling(BigDecimal value) {
-        BigDecimal discarded = internalArray[startIndex];
+    public BigDecimal addElementRolling(BigDecimal value) {
+        lock.writeLock().lock();
+        try {
+            BigDecimal discarded = load(startIndex);
+
+            if (chunks != null) {
+                store(startIndex + numElements, value);
+                startIndex += 1;
+                releaseChunks();
+                return discarded;
+            }
 
-        if ((startIndex + (numElements + 1)) > internalArray.length) {
-            expand();
-        }
-        // Increment the start index
-        startIndex += 1;
+            if (circular) {
+                // the new value takes the place of the discarded one if the storage is full
+                final int position = position(numElements);
+                if (position != startIndex) {
+                    release(0, 1);
+                }
+                store(position, value);
+                startIndex = position(1);
+                return discarded;
+            }
+
+            if ((startIndex + (numElements + 1)) > capacity()) {
+                expand();
+            }
+            // Increment the start index
+            startIndex += 1;
 
-        // Add the new value
-        internalArray[startIndex + (numElements - 1)] = value;
+            // Add the new value
+            store(startIndex + (numElements - 1), value);
 
-        // Check the contraction criterion.
-        if (shouldContract()) {
-            contract();
+            // Check the contraction criterion.
+            if (shouldContract()) {
+                contract();
+            }
+            return discarded;
+        } finally {
+            lock.writeLock().unlock();
         }
-        return discarded;
     }
 
     /**
@@ -326,18 +613,23 @@ public class ResizableDecimalArray {
      * @return the value that has been replaced in the array.
      * @throws IllegalStateException if the array is empty
      */
-    public synchronized BigDecimal substituteMostRecentElement(BigDecimal value)
+    public BigDecimal substituteMostRecentElement(BigDecimal value)
             throws IllegalStateException {
-        if (numElements < 1) {
-            throw new IllegalStateException("cannot substitute an element from an empty array");
-        }
+        lock.writeLock().lock();
+        try {
+            if (numElements < 1) {
+                throw new IllegalStateException("cannot substitute an element from an empty array");
+            }
 
-        final int substIndex = startIndex + (numElements - 1);
-        final BigDecimal discarded = internalArray[substIndex];
+            final int substIndex = position(numElements - 1);
+            final BigDecimal discarded = load(substIndex);
 
-        internalArray[substIndex] = value;
+            store(substIndex, value);
 
-        return discarded;
+            return discarded;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -375,27 +667,84 @@ public class ResizableDecimalArray {
     /**
      * Clear the array contents, resetting the number of elements to zero.
      */
-    public synchronized void clear() {
-        numElements = 0;
-        startIndex = 0;
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            release(0, numElements);
+            numElements = 0;
+            startIndex = 0;
+            if (chunks != null) {
+                releaseChunks();
+            } else if (packedReadOnly) {
+                // nothing is worth copying from the region
+                repack(capacity(), 0, 0, 0);
+            } else if (storageMode != StorageMode.DECIMAL && internalArray != null) {
+                // the values which did not fit are gone, so pack the next ones again
+                deflate();
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
      * Contracts the storage array to the (size of the element set) + 1 - to
      * avoid a zero length array. This function also resets the startIndex to
-     * zero.
+     * zero. The {@code CHUNKED} storage only releases the chunks which hold
+     * no addressable elements and trims the chunk directory.
      */
-    public synchronized void contract() {
-        final BigDecimal[] tempArray = new BigDecimal[numElements + 1];
+    public void contract() {
+        lock.writeLock().lock();
+        try {
+            if (chunks != null) {
+                releaseChunks();
+                chunks = Arrays.copyOf(chunks, Math.max(1, chunkCount));
+                return;
+            }
+            relocate(numElements + 1);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
 
-        // Copy and swap - copy only the element array from the src array.
-        System.arraycopy(internalArray, startIndex, tempArray, 0, numElements);
-        internalArray = tempArray;
+    /**
+     * Moves the addressable elements to the beginning of a new storage array of the specified size.
+     * This function also resets the startIndex to zero.
+     *
+     * @param size Size of the new internal storage array.
+     */
+    private void relocate(int size) {
+        if (packedValues != null) {
+            repack(size, startIndex, 0, numElements);
+        } else if (unscaledArray != null) {
+            final long[] tempUnscaled = new long[size];
+            final byte[] tempScales = new byte[size];
+            unwrapTo(unscaledArray, tempUnscaled);
+            unwrapTo(scaleArray, tempScales);
+            unscaledArray = tempUnscaled;
+            scaleArray = tempScales;
+        } else {
+            final BigDecimal[] tempArray = new BigDecimal[size];
+
+            // Copy and swap - copy only the element array from the src array.
+            unwrapTo(internalArray, tempArray);
+            internalArray = tempArray;
+        }
 
         // Reset the start index to zero
         startIndex = 0;
     }
 
+    /**
+     * Copies the addressable elements of the storage array to the beginning of the destination array,
+     * the elements of the circular storage are copied in two parts if they wrap around its end.
+     */
+    private void unwrapTo(Object source, Object destination) {
+        final int first = Math.min(numElements, capacity() - startIndex);
+        System.arraycopy(source, startIndex, destination, 0, first);
+        System.arraycopy(source, 0, destination, first, numElements - first);
+    }
+
     /**
      * Discards the <code>i</code> initial elements of the array.  For example,
      * if the array contains the elements 1,2,3,4, invoking
@@ -406,8 +755,13 @@ public class ResizableDecimalArray {
      * @param i  the number of elements to discard from the front of the array
      * @throws IllegalArgumentException if i is greater than numElements.
      */
-    public synchronized void discardFrontElements(int i) throws IllegalArgumentException {
-        discardExtremeElements(i, true);
+    public void discardFrontElements(int i) throws IllegalArgumentException {
+        lock.writeLock().lock();
+        try {
+            discardExtremeElements(i, true);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -420,8 +774,13 @@ public class ResizableDecimalArray {
      * @param i  the number of elements to discard from the end of the array
      * @throws IllegalArgumentException if i is greater than numElements.
      */
-    public synchronized void discardMostRecentElements(int i) throws IllegalArgumentException {
-        discardExtremeElements(i,false);
+    public void discardMostRecentElements(int i) throws IllegalArgumentException {
+        lock.writeLock().lock();
+        try {
+            discardExtremeElements(i,false);
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -443,7 +802,7 @@ public class ResizableDecimalArray {
      * @throws IllegalArgumentException if i is greater than numElements.
      * @since 2.0
      */
-    private synchronized void discardExtremeElements(int i, boolean front)
+    private void discardExtremeElements(int i, boolean front)
             throws IllegalArgumentException {
         if (i > numElements) {
             throw new IllegalArgumentException("cannot discard " + i + " elements from a "
@@ -451,13 +810,17 @@ public class ResizableDecimalArray {
         } else if (i < 0) {
             throw new IllegalArgumentException("cannot discard a negative number of elements (" + i + ")");
         } else {
+            // the discarded values are not referenced by the storage any longer
+            release(front ? 0 : numElements - i, i);
             // "Subtract" this number of discarded from numElements
             numElements -= i;
             if (front) {
-                startIndex += i;
+                startIndex = position(i);
             }
         }
-        if (shouldContract()) {
+        if (chunks != null) {
+            releaseChunks();
+        } else if (!circular && shouldContract()) {
             contract();
         }
     }
@@ -471,23 +834,29 @@ public class ResizableDecimalArray {
      * after expansion will be <code>internalArray.length + expansionFactor</code>
      * </p>
      */
-    protected synchronized void expand() {
-        // notice the use of FastMath.ceil(), this guarantees that we will always
-        // have an array of at least currentSize + 1.   Assume that the
-        // current initial capacity is 1 and the expansion factor
-        // is 1.000000000000000001.  The newly calculated size will be
-        // rounded up to 2 after the multiplication is performed.
-        int newSize;
+    protected void expand() {
+        lock.writeLock().lock();
+        try {
+            // notice the use of FastMath.ceil(), this guarantees that we will always
+            // have an array of at least currentSize + 1.   Assume that the
+            // current initial capacity is 1 and the expansion factor
+            // is 1.000000000000000001.  The newly calculated size will be
+            // rounded up to 2 after the multiplication is performed.
+            expandTo(expandedCapacity());
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the size of the internal storage array after the expansion.
+     */
+    private int expandedCapacity() {
         if (expansionMode == ExpansionMode.MULTIPLICATIVE) {
-            newSize = (int) Math.ceil(internalArray.length * expansionFactor);
+            return (int) Math.ceil(capacity() * expansionFactor);
         } else {
-            newSize = (int) (internalArray.length + Math.round(expansionFactor));
+            return (int) (capacity() + Math.round(expansionFactor));
         }
-        final BigDecimal[] tempArray = new BigDecimal[newSize];
-
-        // Copy and swap
-        System.arraycopy(internalArray, 0, tempArray, 0, internalArray.length);
-        internalArray = tempArray;
     }
 
     /**
@@ -495,7 +864,24 @@ public class ResizableDecimalArray {
      *
      * @param size Size of the new internal storage array.
      */
-    private synchronized void expandTo(int size) {
+    private void expandTo(int size) {
+        if (chunks != null) {
+            allocateChunks(size);
+            return;
+        }
+        if (packedValues != null) {
+            repack(size, startIndex, startIndex, Math.min(numElements, capacity() - startIndex));
+            return;
+        }
+        if (unscaledArray != null) {
+            final long[] tempUnscaled = new long[size];
+            final byte[] tempScales = new byte[size];
+            System.arraycopy(unscaledArray, 0, tempUnscaled, 0, unscaledArray.length);
+            System.arraycopy(scaleArray, 0, tempScales, 0, scaleArray.length);
+            unscaledArray = tempUnscaled;
+            scaleArray = tempScales;
+            return;
+        }
         final BigDecimal[] tempArray = new BigDecimal[size];
         // Copy and swap
         System.arraycopy(internalArray, 0, tempArray, 0, internalArray.length);
@@ -527,13 +913,18 @@ public class ResizableDecimalArray {
      * @throws ArrayIndexOutOfBoundsException if <code>index</code> is less than
      * zero or is greater than <code>getNumElements() - 1</code>.
      */
-    public synchronized BigDecimal getElement(int index) {
-        if (index >= numElements) {
-            throw new ArrayIndexOutOfBoundsException(index);
-        } else if (index >= 0) {
-            return internalArray[startIndex + index];
-        } else {
-            throw new ArrayIndexOutOfBoundsException(index);
+    public BigDecimal getElement(int index) {
+        lock.readLock().lock();
+        try {
+            if (index >= numElements) {
+                throw new ArrayIndexOutOfBoundsException(index);
+            } else if (index >= 0) {
+                return load(position(index));
+            } else {
+                throw new ArrayIndexOutOfBoundsException(index);
+            }
+        } finally {
+            lock.readLock().unlock();
         }
     }
 
@@ -544,10 +935,64 @@ public class ResizableDecimalArray {
      *  array have no effect on this <code>ResizableDecimalArray.</code>
      * @return the BigDecimal array.
      */
-    public synchronized BigDecimal[] getElements() {
-        final BigDecimal[] elementArray = new BigDecimal[numElements];
-        System.arraycopy(internalArray, startIndex, elementArray, 0, numElements);
-        return elementArray;
+    public BigDecimal[] getElements() {
+        lock.readLock().lock();
+        try {
+            final BigDecimal[] elementArray = new BigDecimal[numElements];
+            if (chunks != null) {
+                copyFromChunks(startIndex, elementArray, 0, numElements);
+            } else if (internalArray == null) {
+                for (int i = 0; i < numElements; i++) {
+                    elementArray[i] = load(position(i));
+                }
+            } else {
+                unwrapTo(internalArray, elementArray);
+            }
+            return elementArray;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Copies {@code length} elements starting from the {@code index} to the {@code destination} array
+     * starting from the {@code offset} under a single acquisition of the read lock,
+     * which is cheaper than separate {@link #getElement(int)} calls and sees no concurrent modification.
+     *
+     * @param index index of the first element to copy
+     * @param destination array to copy elements to
+     * @param offset position of the first copied element in the destination array
+     * @param length number of elements to copy
+     * @throws ArrayIndexOutOfBoundsException if the range is not within this array
+     * or the destination array.
+     */
+    public void getElements(int index, BigDecimal[] destination, int offset, int length) {
+        lock.readLock().lock();
+        try {
+            if (index < 0 || length < 0 || index + length > numElements) {
+                throw new ArrayIndexOutOfBoundsException("range [" + index + ", " + (index + length)
+                        + ") is out of array of " + numElements + " elements");
+            }
+            if (internalArray == null) {
+                if (offset < 0 || offset + length > destination.length) {
+                    throw new ArrayIndexOutOfBoundsException(offset < 0 ? offset : offset + length);
+                }
+                if (chunks != null) {
+                    copyFromChunks(startIndex + index, destination, offset, length);
+                    return;
+                }
+                for (int i = 0; i < length; i++) {
+                    destination[offset + i] = load(position(index + i));
+                }
+            } else {
+                final int begin = position(index);
+                final int first = Math.min(length, capacity() - begin);
+                System.arraycopy(internalArray, begin, destination, offset, first);
+                System.arraycopy(internalArray, 0, destination, offset + first, length - first);
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -575,7 +1020,159 @@ public class ResizableDecimalArray {
      * @return the length of the internal array.
      */
     public int getCapacity() {
-        return internalArray.length;
+        lock.readLock().lock();
+        try {
+            return capacity();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the storage mode requested for this array.
+     * Note that the {@code COMPACT} array keeps BigDecimals until it is cleared
+     * if a value which does not fit has been added, see {@link #isCompact()}.
+     *
+     * @return the storage mode.
+     */
+    public StorageMode getStorageMode() {
+        return storageMode;
+    }
+
+    /**
+     * Changes the storage mode and converts the stored values accordingly.
+     * Switching to the {@code COMPACT} or {@code OFF_HEAP} mode keeps BigDecimals
+     * if some of the stored values do not fit into the packed storage.
+     * Switching from the {@code CHUNKED} mode copies the values into a single storage array.
+     *
+     * @param storageMode new storage mode.
+     * @throws IllegalArgumentException if {@code storageMode} is null.
+     */
+    public void setStorageMode(StorageMode storageMode) throws IllegalArgumentException {
+        lock.writeLock().lock();
+        try {
+            if (storageMode == null) {
+                throw new IllegalArgumentException("storage mode should be not null");
+            }
+            this.storageMode = storageMode;
+            if (storageMode == StorageMode.CHUNKED) {
+                if (chunks == null) {
+                    split();
+                }
+                return;
+            }
+            if (chunks != null) {
+                inflate();
+            }
+            if (storageMode == StorageMode.DECIMAL) {
+                if (internalArray == null) {
+                    inflate();
+                }
+            } else if (internalArray != null) {
+                if (fitStored()) {
+                    deflate();
+                }
+            } else if (!packedReadOnly && (storageMode == StorageMode.OFF_HEAP) != (packedValues != null)) {
+                // move the packed values between the heap and the direct buffer
+                repack(capacity(), startIndex, startIndex, numElements);
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true if the values are packed into the compact or the off-heap storage at the moment.
+     *
+     * @return true if the values are stored as unscaled longs and scales.
+     */
+    public boolean isCompact() {
+        lock.readLock().lock();
+        try {
+            return unscaledArray != null || packedValues != null;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true if the storage is used as a circular buffer.
+     *
+     * @return true if the elements may wrap around the end of the storage.
+     */
+    public boolean isCircular() {
+        lock.readLock().lock();
+        try {
+            return circular;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Turns on or off usage of the storage as a circular buffer.
+     * The circular storage is not expanded by the {@link #addElementRolling(BigDecimal)}
+     * and is not contracted by discarding of elements, only by the {@link #contract()}: the added element takes the place
+     * after the last one, wrapping around the end of the storage, so that a rolling insert
+     * takes constant time without copying. The storage is expanded only when an element
+     * is added to the full storage or by the {@link #setElement(int, BigDecimal)} and the {@link #setNumElements(int)},
+     * which unwrap the elements first. The {@link #getArrayRef()} returns a temporary array while
+     * the elements wrap around the end of the storage.
+     *
+     * @param circular true to use the storage as a circular buffer.
+     */
+    public void setCircular(boolean circular) {
+        lock.writeLock().lock();
+        try {
+            if (!circular && startIndex + numElements > capacity()) {
+                relocate(capacity());
+            }
+            this.circular = circular;
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns true if all addressable elements can be packed into the compact storage.
+     */
+    boolean isPackable() {
+        lock.readLock().lock();
+        try {
+            return unscaledArray != null || packedValues != null || fitStored();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Writes the unscaled values of the addressable elements as big-endian longs followed by their scales,
+     * the layout which is read by the {@link #map(ByteBuffer, int)}. All elements must be packable.
+     *
+     * @param channel channel to write to
+     * @param buffer buffer to collect the bytes in before they are written, at least 8 bytes long
+     * @throws IOException if the channel fails
+     */
+    void writeCompact(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        lock.readLock().lock();
+        try {
+            buffer.clear();
+            for (int i = 0; i < numElements; i++) {
+                if (buffer.remaining() < 8) {
+                    flush(channel, buffer);
+                }
+                buffer.putLong(unscaled(position(i)));
+            }
+            for (int i = 0; i < numElements; i++) {
+                if (!buffer.hasRemaining()) {
+                    flush(channel, buffer);
+                }
+                buffer.put((byte) scale(position(i)));
+            }
+            flush(channel, buffer);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -584,8 +1181,13 @@ public class ResizableDecimalArray {
      *
      * @return the number of elements.
      */
-    public synchronized int getNumElements() {
-        return numElements;
+    public int getNumElements() {
+        lock.readLock().lock();
+        try {
+            return numElements;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -603,11 +1205,26 @@ public class ResizableDecimalArray {
      * <br/>
      * The {@link #getElements} method has no such limitation since it
      * returns a copy of this array's addressable elements.
+     * <br/>
+     * If the values are packed into the compact storage, are stored in chunks or wrap around the end
+     * of the circular storage, a temporary array with the addressable elements restored at the same indices is returned instead.
      *
      * @return the internal storage array used by this object.
      */
     protected BigDecimal[] getArrayRef() {
-        return internalArray;
+        lock.readLock().lock();
+        try {
+            if (internalArray == null || startIndex + numElements > capacity()) {
+                final BigDecimal[] tempArray = new BigDecimal[Math.max(capacity(), startIndex + numElements)];
+                for (int i = 0; i < numElements; i++) {
+                    tempArray[startIndex + i] = load(position(i));
+                }
+                return tempArray;
+            }
+            return internalArray;
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 
     /**
@@ -627,23 +1244,103 @@ public class ResizableDecimalArray {
 
     /**
      * Performs an operation on the addressable elements of the array.
+     * The function is evaluated under a single acquisition of the read lock, so it sees no concurrent modification.
+     * The function reads the internal storage array directly, the elements are copied to a temporary
+     * array only if they are packed, are stored in chunks or wrap around the end of the circular storage.
+     * Use the {@link #compute(Function, Combiner)} to avoid the copy if the results of parts can be merged.
      *
      * @param f Function to be applied on this array.
+     * @param <T> type of the result.
      * @return the result.
-     * @since 3.1
+     */
+    public <T> T compute(Function<T> f) {
+        lock.readLock().lock();
+        try {
+            if (internalArray != null && startIndex + numElements <= internalArray.length) {
+                return f.evaluate(internalArray, startIndex, numElements);
+            }
+            return f.evaluate(getElements(), 0, numElements);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Performs an operation on the addressable elements of the array part by part and merges the results
+     * of the parts in their order. The function is evaluated under a single acquisition of the read lock.
+     * The function reads the internal storage array directly: each chunk of the {@code CHUNKED} storage
+     * and each of two parts of the circular storage which wraps around its end is a separate part.
+     * Packed values are restored into a temporary array of at most a chunk size, which is reused for all parts.
+     * So no temporary array longer than a chunk is allocated.
+     *
+     * @param f Function to be applied on each part of this array.
+     * @param combiner Combiner of the results of adjacent parts.
+     * @param <T> type of the result.
+     * @return the result.
+     */
+    public <T> T compute(Function<T> f, Combiner<T> combiner) {
+        lock.readLock().lock();
+        try {
+            return compute(0, numElements, f, combiner);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
 
-    public double compute(MathArrays.Function f) {
-        final double[] array;
-        final int start;
-        final int num;
-        synchronized(this) {
-            array = internalArray;
-            start = startIndex;
-            num   = numElements;
+    /**
+     * Performs an operation on the {@code length} elements starting at the {@code index} part by part
+     * and merges the results of the parts in their order, see {@link #compute(Function, Combiner)}.
+     * Callers which scan a range of elements should use it instead of the {@link #getElement(int)},
+     * which acquires the read lock for each element.
+     *
+     * @param index index of the first element.
+     * @param length number of elements.
+     * @param f Function to be applied on each part of the range.
+     * @param combiner Combiner of the results of adjacent parts.
+     * @param <T> type of the result.
+     * @return the result.
+     * @throws ArrayIndexOutOfBoundsException if the range is not within the addressable elements.
+     */
+    public <T> T compute(int index, int length, Function<T> f, Combiner<T> combiner) {
+        lock.readLock().lock();
+        try {
+            if (index < 0 || length < 0 || index > numElements - length) {
+                throw new ArrayIndexOutOfBoundsException("range [" + index + ", " + ((long) index + length)
+                        + ") is out of " + numElements + " elements");
+            }
+            if (length == 0) {
+                return f.evaluate(new BigDecimal[0], 0, 0);
+            }
+            final int end = index + length;
+            final BigDecimal[] buffer = chunks == null && internalArray == null
+                    ? new BigDecimal[Math.min(length, CHUNK_SIZE)] : null;
+            T result = null;
+            for (int i = index; i < end; ) {
+                final int position = position(i);
+                final T part;
+                final int partLength;
+                if (chunks != null) {
+                    final int begin = position & (CHUNK_SIZE - 1);
+                    partLength = Math.min(end - i, CHUNK_SIZE - begin);
+                    part = f.evaluate(chunks[position >> CHUNK_SHIFT], begin, partLength);
+                } else if (internalArray != null) {
+                    partLength = Math.min(end - i, capacity() - position);
+                    part = f.evaluate(internalArray, position, partLength);
+                } else {
+                    partLength = Math.min(end - i, buffer.length);
+                    for (int j = 0; j < partLength; j++) {
+                        buffer[j] = load(position(i + j));
+                    }
+                    part = f.evaluate(buffer, 0, partLength);
+                }
+                result = i == index ? part : combiner.combine(result, part);
+                i += partLength;
+            }
+            return result;
+        } finally {
+            lock.readLock().unlock();
         }
-        return f.evaluate(array, start, num);
     }
-    */
 
     /**
      * Sets the element at the specified index.  If the specified index is greater than
@@ -656,17 +1353,26 @@ public class ResizableDecimalArray {
      * @param value value to store at the specified index
      * @throws ArrayIndexOutOfBoundsException if {@code index < 0}.
      */
-    public synchronized void setElement(int index, BigDecimal value) {
-        if (index < 0) {
-            throw new ArrayIndexOutOfBoundsException(index);
-        }
-        if (index + 1 > numElements) {
-            numElements = index + 1;
-        }
-        if ((startIndex + index) >= internalArray.length) {
-            expandTo(startIndex + (index + 1));
+    public void setElement(int index, BigDecimal value) {
+        lock.writeLock().lock();
+        try {
+            if (index < 0) {
+                throw new ArrayIndexOutOfBoundsException(index);
+            }
+            if (startIndex + numElements > capacity()) {
+                // the circular storage is unwrapped to be expanded
+                relocate(capacity());
+            }
+            if (index + 1 > numElements) {
+                numElements = index + 1;
+            }
+            if ((startIndex + index) >= capacity()) {
+                expandTo(startIndex + (index + 1));
+            }
+            store(startIndex + index, value);
+        } finally {
+            lock.writeLock().unlock();
         }
-        internalArray[startIndex + index] = value;
     }
 
     /**
@@ -677,22 +1383,32 @@ public class ResizableDecimalArray {
      * @param i a new number of elements
      * @throws IllegalArgumentException if <code>i</code> is negative.
      */
-    public synchronized void setNumElements(int i)
+    public void setNumElements(int i)
             throws IllegalArgumentException {
-        // If index is negative thrown an error.
-        if (i < 0) {
-            throw new IllegalArgumentException("index (" + i + ") is not positive");
-        }
+        lock.writeLock().lock();
+        try {
+            // If index is negative thrown an error.
+            if (i < 0) {
+                throw new IllegalArgumentException("index (" + i + ") is not positive");
+            }
 
-        // Test the new num elements, check to see if the array needs to be
-        // expanded to accommodate this new number of elements.
-        final int newSize = startIndex + i;
-        if (newSize > internalArray.length) {
-            expandTo(newSize);
-        }
+            if (startIndex + numElements > capacity()) {
+                // the circular storage is unwrapped to be expanded
+                relocate(capacity());
+            }
+
+            // Test the new num elements, check to see if the array needs to be
+            // expanded to accommodate this new number of elements.
+            final int newSize = startIndex + i;
+            if (newSize > capacity()) {
+                expandTo(newSize);
+            }
 
-        // Set the new number of elements to new value.
-        numElements = i;
+            // Set the new number of elements to new value.
+            numElements = i;
+        } finally {
+            lock.writeLock().unlock();
+        }
     }
 
     /**
@@ -701,20 +1417,341 @@ public class ResizableDecimalArray {
      *
      * @return true if array satisfies the contraction criteria
      */
-    private synchronized boolean shouldContract() {
+    private boolean shouldContract() {
         if (expansionMode == ExpansionMode.MULTIPLICATIVE) {
-            return (internalArray.length / ((float) numElements)) > contractionCriterion;
+            return (capacity() / ((float) numElements)) > contractionCriterion;
         } else {
-            return (internalArray.length - numElements) > contractionCriterion;
+            return (capacity() - numElements) > contractionCriterion;
         }
     }
 
+    /**
+     * Returns the length of the internal storage array which is in use.
+     */
+    private int capacity() {
+        if (chunks != null) {
+            return chunkCount << CHUNK_SHIFT;
+        }
+        if (internalArray != null) {
+            return internalArray.length;
+        }
+        // each position of the buffer takes a long unscaled value and a byte scale
+        return unscaledArray != null ? unscaledArray.length : packedValues.limit() / 9;
+    }
+
+    /**
+     * Returns the value stored at the specified position of the internal storage.
+     */
+    private BigDecimal load(int position) {
+        if (chunks != null) {
+            return chunks[position >> CHUNK_SHIFT][position & (CHUNK_SIZE - 1)];
+        }
+        if (internalArray == null) {
+            return BigDecimal.valueOf(unscaled(position), scale(position));
+        }
+        return internalArray[position];
+    }
+
+    /**
+     * Returns the unscaled value stored at the specified position, which must be packable.
+     */
+    private long unscaled(int position) {
+        if (unscaledArray != null) {
+            return unscaledArray[position];
+        } else if (packedValues != null) {
+            return packedValues.getLong(position * 8);
+        }
+        return load(position).unscaledValue().longValue();
+    }
+
+    /**
+     * Returns the scale of the value stored at the specified position, which must be packable.
+     */
+    private int scale(int position) {
+        if (unscaledArray != null) {
+            return scaleArray[position];
+        } else if (packedValues != null) {
+            return packedValues.get(capacity() * 8 + position);
+        }
+        return load(position).scale();
+    }
+
+    /**
+     * Stores the value at the specified position of the internal storage.
+     * The compact storage is converted to the BigDecimal one if the value does not fit.
+     */
+    private void store(int position, BigDecimal value) {
+        if (chunks != null) {
+            if ((position >> CHUNK_SHIFT) >= chunkCount) {
+                allocateChunks(position + 1);
+            }
+            chunks[position >> CHUNK_SHIFT][position & (CHUNK_SIZE - 1)] = value;
+            return;
+        }
+        if (packedReadOnly) {
+            unmap();
+        }
+        if (internalArray == null) {
+            if (fits(value)) {
+                pack(position, value);
+                return;
+            }
+            inflate();
+        }
+        internalArray[position] = value;
+    }
+
+    /**
+     * Packs the value which fits into the writable compact or off-heap storage at the specified position.
+     */
+    private void pack(int position, BigDecimal value) {
+        final long unscaled = value.unscaledValue().longValue();
+        if (unscaledArray != null) {
+            unscaledArray[position] = unscaled;
+            scaleArray[position] = (byte) value.scale();
+        } else {
+            // the offsets fit into an int since the size of the buffer is limited, see packedBytes
+            packedValues.putLong(position * 8, unscaled);
+            packedValues.put(capacity() * 8 + position, (byte) value.scale());
+        }
+    }
+
+    /**
+     * Returns true if the value can be packed into the compact storage.
+     */
+    private static boolean fits(BigDecimal value) {
+        return value != null
+                && value.scale() >= Byte.MIN_VALUE && value.scale() <= Byte.MAX_VALUE
+                && (value.precision() < 19 || value.unscaledValue().bitLength() < 64);
+    }
+
+    private static boolean fitAll(BigDecimal[] values, int begin, int length) {
+        for (int i = begin; i < begin + length; i++) {
+            if (!fits(values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if all addressable elements of the BigDecimal or chunked storage can be packed.
+     */
+    private boolean fitStored() {
+        for (int i = 0; i < numElements; i++) {
+            if (!fits(load(position(i)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Clears the references to the {@code count} elements starting at the specified index, which are discarded,
+     * so that they can be garbage collected. The packed storage keeps no references.
+     */
+    private void release(int index, int count) {
+        if (chunks != null) {
+            for (int i = index; i < index + count; i++) {
+                final int position = position(i);
+                chunks[position >> CHUNK_SHIFT][position & (CHUNK_SIZE - 1)] = null;
+            }
+        } else if (internalArray != null) {
+            for (int i = index; i < index + count; i++) {
+                internalArray[position(i)] = null;
+            }
+        }
+    }
+
+    /**
+     * Returns the position of the element with the specified index in the internal storage.
+     */
+    private int position(int index) {
+        final int position = startIndex + index;
+        return circular && chunks == null && position >= capacity() ? position - capacity() : position;
+    }
+
+    /**
+     * Converts the compact or chunked storage to the BigDecimal one.
+     */
+    private void inflate() {
+        final BigDecimal[] tempArray = new BigDecimal[Math.max(1, capacity())];
+        for (int i = 0; i < numElements; i++) {
+            tempArray[position(i)] = load(position(i));
+        }
+        internalArray = tempArray;
+        unscaledArray = null;
+        scaleArray = null;
+        packedValues = null;
+        packedReadOnly = false;
+        chunks = null;
+        chunkCount = 0;
+    }
+
+    /**
+     * Converts the storage to the chunked one, the addressable elements are moved to the beginning of the first chunk.
+     */
+    private void split() {
+        final int count = (numElements + CHUNK_SIZE - 1) >> CHUNK_SHIFT;
+        final BigDecimal[][] tempChunks = new BigDecimal[Math.max(1, count)][];
+        for (int i = 0; i < count; i++) {
+            tempChunks[i] = new BigDecimal[CHUNK_SIZE];
+        }
+        for (int i = 0; i < numElements; i++) {
+            tempChunks[i >> CHUNK_SHIFT][i & (CHUNK_SIZE - 1)] = load(position(i));
+        }
+        chunks = tempChunks;
+        chunkCount = count;
+        startIndex = 0;
+        internalArray = null;
+        unscaledArray = null;
+        scaleArray = null;
+        packedValues = null;
+        packedReadOnly = false;
+    }
+
+    /**
+     * Allocates chunks of the chunked storage, so that it has at least the specified number of positions.
+     * The chunk directory grows by doubling, the allocated chunks are never copied.
+     */
+    private void allocateChunks(int size) {
+        final int count = (int) (((long) size + CHUNK_SIZE - 1) >> CHUNK_SHIFT);
+        if (count > chunks.length) {
+            chunks = Arrays.copyOf(chunks, Math.max(count, chunks.length * 2));
+        }
+        while (chunkCount < count) {
+            chunks[chunkCount++] = new BigDecimal[CHUNK_SIZE];
+        }
+    }
+
+    /**
+     * Releases the chunks of the chunked storage which precede the startIndex and the chunks which
+     * follow the last addressable element except one, which is kept to avoid reallocation
+     * when elements are discarded from the end and added again.
+     */
+    private void releaseChunks() {
+        final int used = (int) (((long) startIndex + numElements + CHUNK_SIZE - 1) >> CHUNK_SHIFT);
+        while (chunkCount > used + 1) {
+            chunks[--chunkCount] = null;
+        }
+        final int released = startIndex >> CHUNK_SHIFT;
+        if (released > 0) {
+            System.arraycopy(chunks, released, chunks, 0, chunkCount - released);
+            Arrays.fill(chunks, chunkCount - released, chunkCount, null);
+            chunkCount -= released;
+            startIndex -= released << CHUNK_SHIFT;
+        }
+    }
+
+    /**
+     * Copies {@code length} elements of the chunked storage starting from the {@code position}
+     * to the destination array, a chunk at a time.
+     */
+    private void copyFromChunks(int position, BigDecimal[] destination, int offset, int length) {
+        for (int i = 0; i < length; ) {
+            final int begin = (position + i) & (CHUNK_SIZE - 1);
+            final int part = Math.min(length - i, CHUNK_SIZE - begin);
+            System.arraycopy(chunks[(position + i) >> CHUNK_SHIFT], begin, destination, offset + i, part);
+            i += part;
+        }
+    }
+
+    /**
+     * Copies {@code length} values of the source array starting from the {@code offset}
+     * to the allocated chunks starting from the {@code position}, a chunk at a time.
+     */
+    private void copyToChunks(BigDecimal[] source, int offset, int position, int length) {
+        for (int i = 0; i < length; ) {
+            final int begin = (position + i) & (CHUNK_SIZE - 1);
+            final int part = Math.min(length - i, CHUNK_SIZE - begin);
+            System.arraycopy(source, offset + i, chunks[(position + i) >> CHUNK_SHIFT], begin, part);
+            i += part;
+        }
+    }
+
+    /**
+     * Copies the addressable elements of the read-only region to the storage of the storage mode.
+     */
+    private void unmap() {
+        // the number of elements may be already increased beyond the region by the setElement
+        repack(capacity(), startIndex, startIndex,
+                Math.min(numElements, circular ? capacity() : capacity() - startIndex));
+    }
+
+    /**
+     * Moves {@code length} values from the position {@code from} of the current storage
+     * to the position {@code to} of a new packed storage of the specified size:
+     * the heap arrays in the {@code COMPACT} mode or a direct buffer in the {@code OFF_HEAP} mode.
+     * The values of the {@code DECIMAL} storage must fit.
+     * Positions of the circular storage wrap around the end of the current and the new storage respectively.
+     */
+    private void repack(int size, int from, int to, int length) {
+        final int current = capacity();
+        long[] tempUnscaled = null;
+        byte[] tempScales = null;
+        ByteBuffer tempBuffer = null;
+        if (storageMode == StorageMode.OFF_HEAP) {
+            tempBuffer = ByteBuffer.allocateDirect(packedBytes(size));
+        } else {
+            tempUnscaled = new long[size];
+            tempScales = new byte[size];
+        }
+        for (int i = 0; i < length; i++) {
+            final int source = circular && from + i >= current ? from + i - current : from + i;
+            final int target = circular && to + i >= size ? to + i - size : to + i;
+            final long unscaled = unscaled(source);
+            final byte scale = (byte) scale(source);
+            if (tempBuffer != null) {
+                tempBuffer.putLong(target * 8, unscaled);
+                tempBuffer.put(size * 8 + target, scale);
+            } else {
+                tempUnscaled[target] = unscaled;
+                tempScales[target] = scale;
+            }
+        }
+        unscaledArray = tempUnscaled;
+        scaleArray = tempScales;
+        packedValues = tempBuffer;
+        packedReadOnly = false;
+        internalArray = null;
+    }
+
+    /**
+     * Returns the number of bytes of the direct buffer which packs the specified number of values:
+     * 8 bytes of the unscaled value and a byte of the scale per value.
+     * Since the size of the buffer is checked, the offsets of the values within it fit into an int.
+     * @throws IllegalStateException if the values do not fit into a single direct buffer.
+     */
+    static int packedBytes(int size) {
+        final long bytes = 9L * size;
+        if (bytes > Integer.MAX_VALUE) {
+            throw new IllegalStateException("off-heap storage of " + size + " elements exceeds "
+                    + Integer.MAX_VALUE + " bytes of a direct buffer");
+        }
+        return (int) bytes;
+    }
+
+    private static void flush(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Converts the BigDecimal storage to the compact or off-heap one. All addressable elements must fit.
+     */
+    private void deflate() {
+        repack(internalArray.length, startIndex, startIndex, numElements);
+    }
+
     /**
      * <p>Copies source to dest, so that dest contains links to the same Bigdecimals as the source.
      * It is safe because BigDecimals are immutable. Does not contract before the copy.</p>
      *
-     * <p>Obtains synchronization locks on both source and dest
-     * (in that order) before performing the copy.</p>
+     * <p>Obtains the read lock of the source and the write lock of the dest
+     * (in that order) before performing the copy. Copying an array to itself does nothing.</p>
      *
      * <p>Neither source nor dest may be null; otherwise a {@link IllegalArgumentException}
      * is thrown</p>
@@ -728,17 +1765,61 @@ public class ResizableDecimalArray {
         if(source == null || dest == null) {
             throw new IllegalArgumentException("arguments should be not null");
         }
-        synchronized(source) {
-            synchronized(dest) {
-                dest.contractionCriterion = source.contractionCriterion;
-                dest.expansionFactor = source.expansionFactor;
-                dest.expansionMode = source.expansionMode;
+        if (source == dest) {
+            return;
+        }
+        source.lock.readLock().lock();
+        dest.lock.writeLock().lock();
+        try {
+            dest.contractionCriterion = source.contractionCriterion;
+            dest.expansionFactor = source.expansionFactor;
+            dest.expansionMode = source.expansionMode;
+            dest.storageMode = source.storageMode;
+            dest.circular = source.circular;
+            dest.packedReadOnly = source.packedReadOnly;
+            if (source.packedValues != null) {
+                if (source.packedReadOnly) {
+                    // the region is never modified, so it can be shared
+                    dest.packedValues = source.packedValues;
+                } else {
+                    dest.packedValues = ByteBuffer.allocateDirect(source.packedValues.limit());
+                    dest.packedValues.put(source.packedValues.duplicate());
+                    dest.packedValues.clear();
+                }
+                dest.unscaledArray = null;
+                dest.scaleArray = null;
+                dest.internalArray = null;
+                dest.chunks = null;
+            } else if (source.chunks != null) {
+                dest.chunks = new BigDecimal[source.chunks.length][];
+                for (int i = 0; i < source.chunkCount; i++) {
+                    dest.chunks[i] = source.chunks[i].clone();
+                }
+                dest.internalArray = null;
+                dest.unscaledArray = null;
+                dest.scaleArray = null;
+                dest.packedValues = null;
+            } else if (source.unscaledArray != null) {
+                dest.unscaledArray = source.unscaledArray.clone();
+                dest.scaleArray = source.scaleArray.clone();
+                dest.internalArray = null;
+                dest.packedValues = null;
+                dest.chunks = null;
+            } else {
                 dest.internalArray = new BigDecimal[source.internalArray.length];
                 System.arraycopy(source.internalArray, 0, dest.internalArray,
                         0, dest.internalArray.length);
-                dest.numElements = source.numElements;
-                dest.startIndex = source.startIndex;
+                dest.unscaledArray = null;
+                dest.scaleArray = null;
+                dest.packedValues = null;
+                dest.chunks = null;
             }
+            dest.chunkCount = source.chunkCount;
+            dest.numElements = source.numElements;
+            dest.startIndex = source.startIndex;
+        } finally {
+            dest.lock.writeLock().unlock();
+            source.lock.readLock().unlock();
         }
     }
 
@@ -750,7 +1831,7 @@ public class ResizableDecimalArray {
      * @return a new ResizableDecimalArray with the same data and configuration
      * properties as this
      */
-    public synchronized ResizableDecimalArray copy() {
+    public ResizableDecimalArray copy() {
         final ResizableDecimalArray result = new ResizableDecimalArray();
         copy(this, result);
         return result;
@@ -772,16 +1853,26 @@ public class ResizableDecimalArray {
         if (!(object instanceof ResizableDecimalArray)) {
             return false;
         }
-        synchronized(this) {
-            synchronized(object) {
-                final ResizableDecimalArray other = (ResizableDecimalArray) object;
-                boolean result = other.contractionCriterion == contractionCriterion;
-                result = result && (other.expansionFactor == expansionFactor);
-                result = result && (other.expansionMode == expansionMode);
-                result = result && (other.numElements == numElements);
-                result = result && (other.startIndex == startIndex);
-                return result && Arrays.equals(internalArray, other.internalArray);
-            }
+        final ResizableDecimalArray other = (ResizableDecimalArray) object;
+        lock.readLock().lock();
+        other.lock.readLock().lock();
+        try {
+            boolean result = other.contractionCriterion == contractionCriterion;
+            result = result && (other.expansionFactor == expansionFactor);
+            result = result && (other.expansionMode == expansionMode);
+            result = result && (other.numElements == numElements);
+            result = result && (other.startIndex == startIndex);
+            result = result && (other.storageMode == storageMode);
+            result = result && (other.circular == circular);
+            result = result && Arrays.equals(unscaledArray, other.unscaledArray);
+            result = result && Arrays.equals(scaleArray, other.scaleArray);
+            result = result && (packedValues == null
+                    ? other.packedValues == null : packedValues.equals(other.packedValues));
+            result = result && Arrays.deepEquals(chunks, other.chunks);
+            return result && Arrays.equals(internalArray, other.internalArray);
+        } finally {
+            other.lock.readLock().unlock();
+            lock.readLock().unlock();
         }
     }
 
@@ -792,14 +1883,23 @@ public class ResizableDecimalArray {
      * @since 2.0
      */
     @Override
-    public synchronized int hashCode() {
-        final int[] hashData = new int[6];
-        hashData[0] = Double.valueOf(expansionFactor).hashCode();
-        hashData[1] = Double.valueOf(contractionCriterion).hashCode();
-        hashData[2] = expansionMode.hashCode();
-        hashData[3] = Arrays.hashCode(internalArray);
-        hashData[4] = numElements;
-        hashData[5] = startIndex;
-        return Arrays.hashCode(hashData);
+    public int hashCode() {
+        lock.readLock().lock();
+        try {
+            final int[] hashData = new int[10];
+            hashData[0] = Double.valueOf(expansionFactor).hashCode();
+            hashData[1] = Double.valueOf(contractionCriterion).hashCode();
+            hashData[2] = expansionMode.hashCode();
+            hashData[3] = Arrays.hashCode(internalArray);
+            hashData[4] = numElements;
+            hashData[5] = startIndex;
+            hashData[6] = Arrays.hashCode(unscaledArray);
+            hashData[7] = Arrays.hashCode(scaleArray);
+            hashData[8] = packedValues == null ? 0 : packedValues.hashCode();
+            hashData[9] = Arrays.deepHashCode(chunks);
+            return Arrays.hashCode(hashData);
+        } finally {
+            lock.readLock().unlock();
+        }
     }
 }
@@ -0,0 +1,232 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.math.BigDecimal;
+
+/**
+ * Tracks minimum and maximum of a rolling window of values with two monotonic deques.
+ * <p>
+ * Each element of the window gets a sequence number.
+ * The minimums deque holds the elements which have no strictly smaller element after them in the window,
+ * so the values in the deque are non-decreasing and the oldest minimal value is at the front of the deque.
+ * The maximums deque is organized in the same way.
+ * Adding a value and discarding the oldest values take amortized O(1) time,
+ * the minimum and the maximum are returned in O(1) time.
+ * </p>
+ * <p>
+ * Removal of the most recent value has to restore the elements which have been pushed out
+ * of the deques by that value. Each deque keeps the elements it has pushed out in a stack together
+ * with the sequence number of the element which pushed them out, so they are restored in time proportional
+ * to their number without reading the window storage. The stack is trimmed when the elements which pushed
+ * the entries out leave the window, so it holds no more entries than the window.
+ * </p>
+ */
+final class RollingMinMax {
+
+    /** Sequence number of the oldest element of the window. */
+    private long head = 0;
+
+    /** Sequence number which will be assigned to the next added element. */
+    private long tail = 0;
+
+    private final MonotonicDeque minimums = new MonotonicDeque(-1);
+    private final MonotonicDeque maximums = new MonotonicDeque(1);
+
+    /**
+     * Creates a tracker for the values currently stored in the array.
+     */
+    RollingMinMax(ResizableDecimalArray window) {
+        window.compute(new ResizableDecimalArray.Function<Void>() {
+            @Override
+            public Void evaluate(BigDecimal[] values, int begin, int length) {
+                for (int i = begin; i < begin + length; i++) {
+                    push(values[i]);
+                }
+                return null;
+            }
+        }, ResizableDecimalArray.NO_RESULT);
+    }
+
+    /**
+     * Adds the most recent value to the window.
+     */
+    void push(BigDecimal value) {
+        final long seq = tail++;
+        minimums.push(seq, value);
+        maximums.push(seq, value);
+    }
+
+    /**
+     * Discards the {@code count} oldest values of the window.
+     */
+    void discardFront(int count) {
+        head += count;
+        minimums.discardBefore(head);
+        maximums.discardBefore(head);
+    }
+
+    /**
+     * Discards the most recent value of the window.
+     */
+    void discardLast() {
+        tail--;
+        minimums.discardLast(tail);
+        maximums.discardLast(tail);
+    }
+
+    /**
+     * Returns the minimum of the window or null if the window is empty.
+     */
+    BigDecimal getMin() {
+        return minimums.front();
+    }
+
+    /**
+     * Returns the maximum of the window or null if the window is empty.
+     */
+    BigDecimal getMax() {
+        return maximums.front();
+    }
+
+    /**
+     * Deque of (sequence number, value) pairs, monotonic in the order defined by the sign,
+     * with the stack of pairs pushed out of it.
+     */
+    private final class MonotonicDeque {
+
+        /** -1 for the deque of minimums, 1 for the deque of maximums. */
+        private final int sign;
+
+        private final Entries kept = new Entries();
+
+        /** Pushed out pairs, the owner is the sequence number of the element which pushed the pair out. */
+        private final Entries popped = new Entries();
+
+        MonotonicDeque(int sign) {
+            this.sign = sign;
+        }
+
+        void push(long seq, BigDecimal value) {
+            // drop elements which can not be the extremum while the new value is in the window
+            while (kept.size > 0 && sign * kept.lastValue().compareTo(value) < 0) {
+                popped.addLast(kept.lastSequence(), kept.lastValue(), seq);
+                kept.removeLast();
+            }
+            kept.addLast(seq, value, seq);
+        }
+
+        void discardBefore(long seq) {
+            while (kept.size > 0 && kept.firstSequence() < seq) {
+                kept.removeFirst();
+            }
+            // the elements which pushed the pairs out have left the window, so they are never restored
+            while (popped.size > 0 && popped.firstOwner() < seq) {
+                popped.removeFirst();
+            }
+        }
+
+        void discardLast(long seq) {
+            if (kept.size > 0 && kept.lastSequence() == seq) {
+                kept.removeLast();
+            }
+            // restore elements which have been pushed out by the discarded one, the oldest is on top of the stack
+            while (popped.size > 0 && popped.lastOwner() == seq) {
+                if (popped.lastSequence() >= head) {
+                    kept.addLast(popped.lastSequence(), popped.lastValue(), popped.lastSequence());
+                }
+                popped.removeLast();
+            }
+        }
+
+        BigDecimal front() {
+            return kept.size > 0 ? kept.values[kept.first] : null;
+        }
+    }
+
+    /**
+     * Circular buffer of (sequence number, value, owner) triples.
+     */
+    private static final class Entries {
+
+        private long[] sequences = new long[16];
+        private long[] owners = new long[16];
+        private BigDecimal[] values = new BigDecimal[16];
+        private int first = 0;
+        private int size = 0;
+
+        void addLast(long seq, BigDecimal value, long owner) {
+            if (size == values.length) {
+                grow();
+            }
+            final int last = index(size++);
+            sequences[last] = seq;
+            owners[last] = owner;
+            values[last] = value;
+        }
+
+        void removeFirst() {
+            values[first] = null;
+            first = index(1);
+            size--;
+        }
+
+        void removeLast() {
+            values[index(--size)] = null;
+        }
+
+        long firstSequence() {
+            return sequences[first];
+        }
+
+        long firstOwner() {
+            return owners[first];
+        }
+
+        long lastSequence() {
+            return sequences[index(size - 1)];
+        }
+
+        long lastOwner() {
+            return owners[index(size - 1)];
+        }
+
+        BigDecimal lastValue() {
+            return values[index(size - 1)];
+        }
+
+        private int index(int offset) {
+            return (first + offset) % values.length;
+        }
+
+        private void grow() {
+            final long[] newSequences = new long[2 * sequences.length];
+            final long[] newOwners = new long[2 * owners.length];
+            final BigDecimal[] newValues = new BigDecimal[2 * values.length];
+            for (int i = 0; i < size; i++) {
+                newSequences[i] = sequences[index(i)];
+                newOwners[i] = owners[index(i)];
+                newValues[i] = values[index(i)];
+            }
+            sequences = newSequences;
+            owners = newOwners;
+            values = newValues;
+            first = 0;
+        }
+    }
+}
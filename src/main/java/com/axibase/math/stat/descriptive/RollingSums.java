@@ -0,0 +1,100 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.math.BigDecimal;
+import java.util.TreeMap;
+
+/**
+ * Exact running sum and sum of squares of a rolling window of values.
+ * Values entering the window are added to the totals and values leaving the window are subtracted,
+ * so each update costs O(1) regardless of the window size, plus O(log s) for s distinct scales in the window.
+ * As BigDecimal addition and subtraction are exact, the totals are always equal to the
+ * sums calculated from scratch. Their scales are equal as well: the number of values of each scale
+ * is counted, and the totals are rescaled down when the last value of the greatest scale leaves the window.
+ */
+final class RollingSums {
+
+    private BigDecimal sum;
+    private BigDecimal sumsq;
+
+    /** Number of values of the window by their scales. */
+    private final TreeMap<Integer, Integer> scales = new TreeMap<Integer, Integer>();
+
+    /**
+     * Creates the totals of the values currently stored in the window.
+     * The sums must be calculated from scratch for the same values.
+     */
+    RollingSums(BigDecimal sum, BigDecimal sumsq, ResizableDecimalArray window) {
+        this.sum = sum;
+        this.sumsq = sumsq;
+        window.compute(new ResizableDecimalArray.Function<Void>() {
+            @Override
+            public Void evaluate(BigDecimal[] values, int begin, int length) {
+                for (int i = begin; i < begin + length; i++) {
+                    count(values[i].scale(), 1);
+                }
+                return null;
+            }
+        }, ResizableDecimalArray.NO_RESULT);
+    }
+
+    /**
+     * Adds the value entering the window to the totals.
+     */
+    void add(BigDecimal value) {
+        sum = sum.add(value);
+        sumsq = sumsq.add(value.multiply(value));
+        count(value.scale(), 1);
+    }
+
+    /**
+     * Subtracts the value leaving the window from the totals.
+     */
+    void remove(BigDecimal value) {
+        sum = sum.subtract(value);
+        sumsq = sumsq.subtract(value.multiply(value));
+        count(value.scale(), -1);
+        // the sums from scratch start from zero, so their scales are not negative
+        final int scale = scales.isEmpty() ? 0 : Math.max(0, scales.lastKey());
+        if (sum.scale() > scale) {
+            sum = sum.setScale(scale);
+        }
+        if (sumsq.scale() > 2 * scale) {
+            sumsq = sumsq.setScale(2 * scale);
+        }
+    }
+
+    BigDecimal getSum() {
+        return sum;
+    }
+
+    BigDecimal getSumsq() {
+        return sumsq;
+    }
+
+    private void count(int scale, int delta) {
+        final Integer current = scales.get(scale);
+        final int updated = (current == null ? 0 : current) + delta;
+        if (updated == 0) {
+            scales.remove(scale);
+        } else {
+            scales.put(scale, updated);
+        }
+    }
+}
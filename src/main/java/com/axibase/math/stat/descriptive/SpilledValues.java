@@ -0,0 +1,321 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * The oldest values of a data set, which are sealed into immutable segments of equal size
+ * and spilled to files in a directory. Each file is mapped into memory for reading and is deleted
+ * right after mapping where the platform allows it, so the disk space is released together with the mapping.
+ * <p>
+ * The sum, the sum of squares, the minimum and the maximum of the segments are calculated once
+ * when a segment is sealed. The k-th smallest value is selected by several sequential passes over the segments,
+ * which keep at most a segment size of values in memory.
+ * </p>
+ */
+final class SpilledValues {
+
+    /** Number of values sampled in a pass of the selection to narrow the range of the next pass. */
+    private static final int SAMPLE_SIZE = 4096;
+
+    /** Size of the buffer which collects the packed values before they are written. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Seed of the reservoir sampling, so that the passes of the selection are reproducible. */
+    private static final long SAMPLE_SEED = 61;
+
+    private final File directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<Segment>();
+    private AggregateSnapshot totals = AggregateSnapshot.of(new BigDecimal[0], 0, 0);
+    private final Random random = new Random(SAMPLE_SEED);
+
+    SpilledValues(File directory, int segmentSize) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+    }
+
+    int getSegmentSize() {
+        return segmentSize;
+    }
+
+    int size() {
+        return segments.size() * segmentSize;
+    }
+
+    BigDecimal get(int index) {
+        return segments.get(index / segmentSize).get(index % segmentSize);
+    }
+
+    /**
+     * Returns statistics of all spilled values.
+     */
+    AggregateSnapshot getTotals() {
+        return totals;
+    }
+
+    /**
+     * Seals the first segment size values of the array into a new segment, the array is not changed.
+     * The values are written as unscaled longs and scales if all of them fit,
+     * otherwise as a table of offsets followed by variable length encoded values.
+     * @throws IOException if the segment file can not be written or mapped.
+     */
+    void spill(ResizableDecimalArray values) throws IOException {
+        final BigDecimal[] segmentValues = new BigDecimal[segmentSize];
+        values.getElements(0, segmentValues, 0, segmentSize);
+        final ResizableDecimalArray segmentArray = ResizableDecimalArray.adopt(segmentValues);
+        final boolean packed = segmentArray.isPackable();
+        final File file = File.createTempFile("segment", ".spill", directory);
+        final ByteBuffer region;
+        try (RandomAccessFile output = new RandomAccessFile(file, "rw")) {
+            final FileChannel channel = output.getChannel();
+            if (packed) {
+                segmentArray.writeCompact(channel, ByteBuffer.allocate(BUFFER_SIZE));
+            } else {
+                writeEncoded(channel, segmentValues);
+            }
+            region = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            if (!file.delete()) {
+                // the mapped file can not be deleted on some platforms
+                file.deleteOnExit();
+            }
+        }
+        final AggregateSnapshot segmentTotals = AggregateSnapshot.of(segmentValues, 0, segmentSize);
+        segments.add(packed
+                ? new Segment(ResizableDecimalArray.map(region, segmentSize), null, segmentTotals)
+                : new Segment(null, region, segmentTotals));
+        totals = AggregateSnapshot.merge(totals, segmentTotals);
+    }
+
+    /**
+     * Removes the most recent segment and returns its values, so that they are kept in memory again.
+     * The statistics of all spilled values are merged from the statistics of the remaining segments.
+     * @throws IllegalStateException if no values are spilled.
+     */
+    BigDecimal[] reload() {
+        if (segments.isEmpty()) {
+            throw new IllegalStateException("no spilled values");
+        }
+        final Segment segment = segments.remove(segments.size() - 1);
+        final BigDecimal[] values = new BigDecimal[segmentSize];
+        for (int i = 0; i < segmentSize; i++) {
+            values[i] = segment.get(i);
+        }
+        totals = AggregateSnapshot.of(new BigDecimal[0], 0, 0);
+        for (Segment remaining : segments) {
+            totals = AggregateSnapshot.merge(totals, remaining.totals);
+        }
+        return values;
+    }
+
+    /**
+     * Forgets all spilled values.
+     */
+    void clear() {
+        segments.clear();
+        totals = AggregateSnapshot.of(new BigDecimal[0], 0, 0);
+    }
+
+    /**
+     * Returns the k-th smallest value of the spilled values followed by the values of the tail.
+     * <p>
+     * Each pass counts the values below, equal to and above two values bracketing the k-th one,
+     * which are sampled from the range of the previous pass. The k-th value either equals to a bracket
+     * or belongs to one of the three ranges between them, so that the range excludes at least one value
+     * after each pass. The values of the range are collected by a pass while there are at most segment size of them,
+     * then the k-th value is selected from the sorted range.
+     * </p>
+     */
+    BigDecimal select(ResizableDecimalArray tail, int k) {
+        // the k-th value is searched in the range (lower, upper), null bounds are infinite
+        BigDecimal lower = null;
+        BigDecimal upper = null;
+        // number of values not greater than the lower bound
+        int below = 0;
+        BigDecimal[] bracket = null;
+        while (true) {
+            final Pass pass = new Pass(lower, upper, bracket);
+            for (Segment segment : segments) {
+                for (int i = 0; i < segmentSize; i++) {
+                    pass.accept(segment.get(i));
+                }
+            }
+            tail.compute(pass, ResizableDecimalArray.NO_RESULT);
+            int rank = k - below;
+            if (bracket != null) {
+                if (rank < pass.less) {
+                    upper = bracket[0];
+                    bracket = null;
+                    continue;
+                }
+                rank -= pass.less;
+                if (rank < pass.equalLow) {
+                    return bracket[0];
+                }
+                rank -= pass.equalLow;
+                if (rank >= pass.inside) {
+                    rank -= pass.inside;
+                    if (rank < pass.equalHigh) {
+                        return bracket[1];
+                    }
+                    below = k - (rank - pass.equalHigh);
+                    lower = bracket[1];
+                    bracket = null;
+                    continue;
+                }
+                below = k - rank;
+                lower = bracket[0];
+                upper = bracket[1];
+            }
+            if (pass.inside <= pass.collected.length) {
+                Arrays.sort(pass.collected, 0, pass.inside);
+                return pass.collected[rank];
+            }
+            // the sampled values around the rank bracket the k-th value with high probability
+            final int sampled = Math.min(pass.inside, SAMPLE_SIZE);
+            Arrays.sort(pass.sample, 0, sampled);
+            final int position = (int) ((long) rank * sampled / pass.inside);
+            final int margin = (int) Math.ceil(3 * Math.sqrt(sampled));
+            bracket = new BigDecimal[] {
+                    pass.sample[Math.max(0, position - margin)],
+                    pass.sample[Math.min(sampled - 1, position + margin)]
+            };
+        }
+    }
+
+    private static void writeEncoded(FileChannel channel, BigDecimal[] values) throws IOException {
+        int size = values.length * 4;
+        for (BigDecimal value : values) {
+            size += BinaryCodec.decimalSize(value);
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(size);
+        int offset = values.length * 4;
+        for (BigDecimal value : values) {
+            buffer.putInt(offset);
+            offset += BinaryCodec.decimalSize(value);
+        }
+        for (BigDecimal value : values) {
+            BinaryCodec.writeDecimal(buffer, value);
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /**
+     * Sealed values read either from the packed array or from the offsets table and the encoded values.
+     */
+    private static final class Segment {
+        private final ResizableDecimalArray packed;
+        private final ByteBuffer encoded;
+        private final AggregateSnapshot totals;
+
+        Segment(ResizableDecimalArray packed, ByteBuffer encoded, AggregateSnapshot totals) {
+            this.packed = packed;
+            this.encoded = encoded;
+            this.totals = totals;
+        }
+
+        BigDecimal get(int index) {
+            if (packed != null) {
+                return packed.getElement(index);
+            }
+            final ByteBuffer value = encoded.duplicate();
+            value.position(encoded.getInt(index * 4));
+            return BinaryCodec.readDecimal(value);
+        }
+    }
+
+    /**
+     * Counts values of a selection pass against the bracket, collects and samples the values inside it.
+     */
+    private final class Pass implements ResizableDecimalArray.Function<Void> {
+        private final BigDecimal lower;
+        private final BigDecimal upper;
+        private final BigDecimal low;
+        private final BigDecimal high;
+        private final BigDecimal[] collected = new BigDecimal[segmentSize];
+        private final BigDecimal[] sample = new BigDecimal[SAMPLE_SIZE];
+        private int less;
+        private int equalLow;
+        private int inside;
+        private int equalHigh;
+
+        Pass(BigDecimal lower, BigDecimal upper, BigDecimal[] bracket) {
+            this.lower = lower;
+            this.upper = upper;
+            this.low = bracket == null ? null : bracket[0];
+            this.high = bracket == null ? null : bracket[1];
+        }
+
+        @Override
+        public Void evaluate(BigDecimal[] values, int begin, int length) {
+            for (int i = begin; i < begin + length; i++) {
+                accept(values[i]);
+            }
+            return null;
+        }
+
+        void accept(BigDecimal value) {
+            if ((lower != null && value.compareTo(lower) <= 0) || (upper != null && value.compareTo(upper) >= 0)) {
+                return;
+            }
+            if (low != null) {
+                final int comparison = value.compareTo(low);
+                if (comparison < 0) {
+                    less++;
+                    return;
+                } else if (comparison == 0) {
+                    equalLow++;
+                    return;
+                }
+                final int highComparison = value.compareTo(high);
+                if (highComparison == 0) {
+                    equalHigh++;
+                    return;
+                } else if (highComparison > 0) {
+                    return;
+                }
+            }
+            if (inside < collected.length) {
+                collected[inside] = value;
+            }
+            if (inside < SAMPLE_SIZE) {
+                sample[inside] = value;
+            } else {
+                final int replaced = random.nextInt(inside + 1);
+                if (replaced < SAMPLE_SIZE) {
+                    sample[replaced] = value;
+                }
+            }
+            inside++;
+        }
+    }
+}
@@ -20,6 +20,8 @@ package com.axibase.math.stat.descriptive;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.util.Collection;
 
 /**
  * Computes statistics for a stream of data values added using the addValue method.
@@ -32,12 +34,20 @@ import java.math.RoundingMode;
  * To recalculate statistics for new data value add it with the {@link #addValue(BigDecimal)} method.
  * To clear all statistics and be ready for a new stream use the {@link #clear()} method.
  *
- * As the data values are not stored, some statistics (percentile and select) can not be calculated.
+ * As the data values are not stored, some statistics (percentile and select) can not be calculated exactly.
+ * Approximate percentiles are available if the {@link QuantileSketch} is turned on
+ * with the {@link #setQuantileSketch(QuantileSketch)} method.
   */
 public class SummaryStatistics implements StatisticalSummary {
 
     private static final BigDecimal TWO = new BigDecimal("2");
 
+    /** Version of the binary format written by the {@link #writeTo(ByteBuffer)}. */
+    private static final byte FORMAT_VERSION = 1;
+
+    /** Flag of the binary format, set if the accumulator scale is written. */
+    private static final int ACCUMULATOR_FLAG = 1;
+
     private static final MathContext DEFAULT_MATH_CONTEXT = new MathContext(16, RoundingMode.HALF_UP);
     private MathContext mathContext = DEFAULT_MATH_CONTEXT;
 
@@ -55,25 +65,252 @@ public class SummaryStatistics implements StatisticalSummary {
     private  long n = 0;
     private BigDecimal min = null;
     private BigDecimal max = null;
+
+    /**
+     * Minimum and maximum as unscaled longs and scales. If the minCompact is set, the pair is the minimum
+     * and the min field is either null or the same value created from the pair on demand, the same for the maximum.
+     */
+    private boolean minCompact = false;
+    private long minUnscaled;
+    private int minScale;
+    private boolean maxCompact = false;
+    private long maxUnscaled;
+    private int maxScale;
     private BigDecimal sum = null;
     private BigDecimal sumOfSquares = null;
 
+    /**
+     * Accumulator of the sum and the sum of squares as unscaled longs,
+     * if it is not null the sum and sumOfSquares fields are not used.
+     */
+    private FixedScaleAccumulator accumulator = null;
+
+    /** Sketch of the values for approximate percentiles, null if percentiles are not required. */
+    private QuantileSketch quantileSketch = null;
+
+    /** Parser of decimal text, created on the first use. */
+    private DecimalParser parser = null;
+
     /**
      * Update statistics with provided value from the data stream.
      */
     public void addValue(BigDecimal value) {
-        if (n == 0) {
-            min = value;
-            max = value;
+        if (accumulator != null) {
+            accumulator.add(value);
+        } else if (n == 0) {
             sum = value;
             sumOfSquares = value.pow(2);
         } else {
-            min = value.min(min);
-            max = value.max(max);
             sum = sum.add(value);
             sumOfSquares = sumOfSquares.add(value.pow(2));
         }
+        valueAdded(value);
+    }
+
+    /**
+     * Update statistics with the value {@code unscaledValue * 10^-scale} from the data stream.
+     * If the accumulator scale is set, the value is added without creating a BigDecimal:
+     * the sum and the sum of squares are accumulated as unscaled longs, see {@link #setAccumulatorScale(int)},
+     * and the minimum and the maximum are compared and kept as unscaled values and scales.
+     * The quantile sketch keeps BigDecimal values, so a BigDecimal is created for it if the sketch is turned on.
+     */
+    public void addUnscaled(long unscaledValue, int scale) {
+        if (accumulator == null) {
+            addValue(BigDecimal.valueOf(unscaledValue, scale));
+            return;
+        }
+        accumulator.add(unscaledValue, scale);
+        // the most recent of equal values is kept, as the BigDecimal.min and max do
+        if (n == 0 || compareToMin(unscaledValue, scale) <= 0) {
+            minCompact = true;
+            minUnscaled = unscaledValue;
+            minScale = scale;
+            min = null;
+        }
+        if (n == 0 || compareToMax(unscaledValue, scale) >= 0) {
+            maxCompact = true;
+            maxUnscaled = unscaledValue;
+            maxScale = scale;
+            max = null;
+        }
         n++;
+        if (quantileSketch != null) {
+            quantileSketch.update(BigDecimal.valueOf(unscaledValue, scale));
+        }
+    }
+
+    /**
+     * Update statistics with the exact integer value from the data stream, that is the unscaled value
+     * of the scale 0, see {@link #addUnscaled(long, int)}.
+     * Integral arguments are never widened to the {@link #addValue(double)}.
+     */
+    public void addValue(long value) {
+        addUnscaled(value, 0);
+    }
+
+    /**
+     * Update statistics with the exact value of the provided double, as converted by the
+     * {@link BigDecimal#BigDecimal(double)} constructor.
+     * @throws NumberFormatException if the value is infinite or NaN.
+     */
+    public void addValue(double value) {
+        addValue(value, false);
+    }
+
+    /**
+     * Update statistics with the value of the provided double. If the {@code canonical} is true,
+     * the value is converted by the {@link BigDecimal#valueOf(double)} method, that is the shortest
+     * decimal which is rounded to the double, otherwise the exact binary value of the double is used.
+     * @throws NumberFormatException if the value is infinite or NaN.
+     */
+    public void addValue(double value, boolean canonical) {
+        addValue(canonical ? BigDecimal.valueOf(value) : new BigDecimal(value));
+    }
+
+    /**
+     * Update statistics with the decimal number from the text, the format is the same as of the
+     * {@link BigDecimal#BigDecimal(String)} constructor with ASCII digits only.
+     * Numbers with at most 18 significant digits are parsed directly into the unscaled value and the scale,
+     * see {@link #addUnscaled(long, int)}, so neither a String nor a BigInteger is created,
+     * and no BigDecimal either if the accumulator scale is set and the quantile sketch is not turned on.
+     * @throws NumberFormatException if the text is not a decimal number.
+     */
+    public void addParsed(CharSequence text) {
+        if (getParser().parse(text, 0, text.length())) {
+            addUnscaled(parser.getUnscaledValue(), parser.getScale());
+        } else {
+            addValue(DecimalParser.toBigDecimal(text, 0, text.length()));
+        }
+    }
+
+    /**
+     * Update statistics with the decimal number from the {@code length} ASCII bytes
+     * starting at the {@code offset}, see {@link #addParsed(CharSequence)}.
+     * @throws NumberFormatException if the bytes are not a decimal number.
+     */
+    public void addParsed(byte[] text, int offset, int length) {
+        if (getParser().parse(text, offset, offset + length)) {
+            addUnscaled(parser.getUnscaledValue(), parser.getScale());
+        } else {
+            addValue(DecimalParser.toBigDecimal(text, offset, offset + length));
+        }
+    }
+
+    /**
+     * Update statistics with the decimal number from the {@code length} ASCII bytes of the buffer
+     * starting at the absolute {@code offset}, see {@link #addParsed(CharSequence)}.
+     * The position of the buffer is not changed.
+     * @throws NumberFormatException if the bytes are not a decimal number.
+     */
+    public void addParsed(ByteBuffer text, int offset, int length) {
+        if (getParser().parse(text, offset, offset + length)) {
+            addUnscaled(parser.getUnscaledValue(), parser.getScale());
+        } else {
+            addValue(DecimalParser.toBigDecimal(text, offset, offset + length));
+        }
+    }
+
+    private DecimalParser getParser() {
+        if (parser == null) {
+            parser = new DecimalParser();
+        }
+        return parser;
+    }
+
+    /**
+     * Updates the statistics other than the sum and the sum of squares by the added value.
+     */
+    private void valueAdded(BigDecimal value) {
+        updateExtremes(value, value);
+        n++;
+        if (quantileSketch != null) {
+            quantileSketch.update(value);
+        }
+    }
+
+    /**
+     * Updates the minimum and the maximum by the values summarized elsewhere,
+     * they are the most recent values unless the current ones are smaller or greater respectively.
+     */
+    private void updateExtremes(BigDecimal otherMin, BigDecimal otherMax) {
+        if (n == 0 || otherMin.compareTo(getMin()) <= 0) {
+            min = otherMin;
+            minCompact = otherMin.precision() < 19;
+            if (minCompact) {
+                minUnscaled = BinaryCodec.unscaledLong(otherMin);
+                minScale = otherMin.scale();
+            }
+        }
+        if (n == 0 || otherMax.compareTo(getMax()) >= 0) {
+            max = otherMax;
+            maxCompact = otherMax.precision() < 19;
+            if (maxCompact) {
+                maxUnscaled = BinaryCodec.unscaledLong(otherMax);
+                maxScale = otherMax.scale();
+            }
+        }
+    }
+
+    private int compareToMin(long unscaledValue, int scale) {
+        return minCompact ? DecimalParser.compare(unscaledValue, scale, minUnscaled, minScale)
+                : BigDecimal.valueOf(unscaledValue, scale).compareTo(min);
+    }
+
+    private int compareToMax(long unscaledValue, int scale) {
+        return maxCompact ? DecimalParser.compare(unscaledValue, scale, maxUnscaled, maxScale)
+                : BigDecimal.valueOf(unscaledValue, scale).compareTo(max);
+    }
+
+    /**
+     * Updates statistics with all values summarized by the other instance,
+     * the result is exactly the same as if the values were added to this instance.
+     * If the quantile sketch is turned on, the sketch of the other instance is merged into it.
+     * The other instance is not modified.
+     * @throws IllegalArgumentException if this instance has the quantile sketch turned on and
+     * the other non-empty instance has not.
+     */
+    public void merge(SummaryStatistics other) {
+        if (quantileSketch != null && other.n > 0) {
+            if (other.quantileSketch == null) {
+                throw new IllegalArgumentException("can not merge values without the quantile sketch");
+            }
+            quantileSketch.merge(other.quantileSketch);
+        }
+        combine(other);
+    }
+
+    /**
+     * Returns statistics of all values summarized by the provided instances.
+     * The number of values, minimum, maximum, sum and sum of squares are combined exactly,
+     * so the variance and the standard deviation are the same as of the concatenated data set.
+     * The result uses the default MathContext and has no quantile sketch.
+     */
+    public static SummaryStatistics aggregate(Collection<? extends StatisticalSummary> statistics) {
+        final SummaryStatistics result = new SummaryStatistics();
+        for (StatisticalSummary summary : statistics) {
+            result.combine(summary);
+        }
+        return result;
+    }
+
+    /**
+     * Updates the basic statistics with the values summarized by the other statistics.
+     */
+    void combine(BasicStatistics other) {
+        if (other.getN() == 0) {
+            return;
+        }
+        if (accumulator != null) {
+            accumulator.addTotals(other.getSum(), other.getSumsq());
+        } else if (n == 0) {
+            sum = other.getSum();
+            sumOfSquares = other.getSumsq();
+        } else {
+            sum = sum.add(other.getSum());
+            sumOfSquares = sumOfSquares.add(other.getSumsq());
+        }
+        updateExtremes(other.getMin(), other.getMax());
+        n += other.getN();
     }
 
     /**
@@ -83,8 +320,16 @@ public class SummaryStatistics implements StatisticalSummary {
         n = 0;
         min = null;
         max = null;
+        minCompact = false;
+        maxCompact = false;
         sum = null;
         sumOfSquares = null;
+        if (accumulator != null) {
+            accumulator.clear();
+        }
+        if (quantileSketch != null) {
+            quantileSketch.clear();
+        }
     }
 
     /**
@@ -102,6 +347,9 @@ public class SummaryStatistics implements StatisticalSummary {
         if (n == 0) {
             return null;
         }
+        if (accumulator != null) {
+            return accumulator.getSum();
+        }
         return sum;
     }
 
@@ -113,9 +361,27 @@ public class SummaryStatistics implements StatisticalSummary {
         if (n == 0) {
             return null;
         }
+        if (accumulator != null) {
+            return accumulator.getSumsq();
+        }
         return sumOfSquares;
     }
 
+    /**
+     * Turns on accumulation of the sum and the sum of squares as unscaled {@code long} values at the provided scale.
+     * Adding a value with at most {@code scale} fractional digits and at most 18 significant digits
+     * allocates no intermediate BigDecimals then, except of rare overflows of the {@code long} totals.
+     * Other values are accumulated as usual. The results are exact and have the same scale
+     * as in the default mode.
+     * @throws IllegalStateException if some values have already been added.
+     */
+    public void setAccumulatorScale(int scale) {
+        if (n > 0) {
+            throw new IllegalStateException("accumulator scale can not be changed after values are added");
+        }
+        accumulator = new FixedScaleAccumulator(scale);
+    }
+
     @Override
     public BigDecimal getMean() {
         return getMean(mathContext);
@@ -129,7 +395,7 @@ public class SummaryStatistics implements StatisticalSummary {
         if (n == 0) {
             return null;
         }
-        return sum.divide(BigDecimal.valueOf(n), meanContext);
+        return getSum().divide(BigDecimal.valueOf(n), meanContext);
     }
 
     @Override
@@ -197,6 +463,9 @@ public class SummaryStatistics implements StatisticalSummary {
      * Returns the maximum of the values.
      */
     public BigDecimal getMax() {
+        if (maxCompact && max == null) {
+            max = BigDecimal.valueOf(maxUnscaled, maxScale);
+        }
         return max;
     }
 
@@ -204,6 +473,104 @@ public class SummaryStatistics implements StatisticalSummary {
      * Returns the minimum of the values.
      */
     public BigDecimal getMin() {
+        if (minCompact && min == null) {
+            min = BigDecimal.valueOf(minUnscaled, minScale);
+        }
         return min;
     }
+
+    /**
+     * Returns the approximate p-th percentile of the values, 0 <= p <= 100, see {@link QuantileSketch}.
+     * Null is returned if there are no values.
+     * @throws IllegalStateException if the quantile sketch is not turned on.
+     */
+    public BigDecimal getPercentile(BigDecimal p) {
+        if (quantileSketch == null) {
+            throw new IllegalStateException("quantile sketch is not turned on");
+        }
+        return quantileSketch.getPercentile(p);
+    }
+
+    /**
+     * Returns the sketch used to evaluate percentiles or null if it is not turned on.
+     * Sketches of several instances can be merged to get percentiles of the union of their streams.
+     */
+    public QuantileSketch getQuantileSketch() {
+        return quantileSketch;
+    }
+
+    /**
+     * Turns on approximate percentiles evaluated by the provided sketch, which is updated by each added value.
+     * The sketch should be empty, unless it summarizes values that are to be considered together
+     * with the values added to this instance. The null sketch turns off percentiles.
+     */
+    public void setQuantileSketch(QuantileSketch quantileSketch) {
+        this.quantileSketch = quantileSketch;
+    }
+
+    /**
+     * Returns the number of bytes written by the {@link #writeTo(ByteBuffer)}.
+     */
+    public int getSerializedSize() {
+        int size = 1 + 1 + BinaryCodec.mathContextSize(mathContext);
+        if (accumulator != null) {
+            size += BinaryCodec.varLongSize(BinaryCodec.zigzag(accumulator.getScale()));
+        }
+        size += BinaryCodec.varLongSize(n);
+        if (n > 0) {
+            size += BinaryCodec.decimalSize(getMin()) + BinaryCodec.decimalSize(getMax())
+                    + BinaryCodec.decimalSize(getSum()) + BinaryCodec.decimalSize(getSumsq());
+        }
+        return size;
+    }
+
+    /**
+     * Writes the state of this instance to the buffer in a compact versioned binary format:
+     * the MathContext, the accumulator scale if it is set, the number of values and
+     * the minimum, maximum, sum and sum of squares as varint encoded scales and unscaled values.
+     * The quantile sketch is not written.
+     * @throws java.nio.BufferOverflowException if the buffer has not enough remaining space,
+     * see {@link #getSerializedSize()}.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        buffer.put(FORMAT_VERSION);
+        buffer.put((byte) (accumulator != null ? ACCUMULATOR_FLAG : 0));
+        BinaryCodec.writeMathContext(buffer, mathContext);
+        if (accumulator != null) {
+            BinaryCodec.writeVarLong(buffer, BinaryCodec.zigzag(accumulator.getScale()));
+        }
+        BinaryCodec.writeVarLong(buffer, n);
+        if (n > 0) {
+            BinaryCodec.writeDecimal(buffer, getMin());
+            BinaryCodec.writeDecimal(buffer, getMax());
+            BinaryCodec.writeDecimal(buffer, getSum());
+            BinaryCodec.writeDecimal(buffer, getSumsq());
+        }
+    }
+
+    /**
+     * Reads the state written by the {@link #writeTo(ByteBuffer)} and returns the restored instance.
+     * @throws IllegalArgumentException if the data are written in unsupported format.
+     * @throws java.nio.BufferUnderflowException if the buffer ends before the state.
+     */
+    public static SummaryStatistics readFrom(ByteBuffer buffer) {
+        final byte version = buffer.get();
+        if (version != FORMAT_VERSION) {
+            throw new IllegalArgumentException("unsupported format version " + version);
+        }
+        final int flags = buffer.get();
+        final SummaryStatistics result = new SummaryStatistics(BinaryCodec.readMathContext(buffer));
+        if ((flags & ACCUMULATOR_FLAG) != 0) {
+            result.setAccumulatorScale((int) BinaryCodec.unzigzag(BinaryCodec.readVarLong(buffer)));
+        }
+        final long n = BinaryCodec.readVarLong(buffer);
+        if (n > 0) {
+            final BigDecimal min = BinaryCodec.readDecimal(buffer);
+            final BigDecimal max = BinaryCodec.readDecimal(buffer);
+            final BigDecimal sum = BinaryCodec.readDecimal(buffer);
+            final BigDecimal sumsq = BinaryCodec.readDecimal(buffer);
+            result.combine(new AggregateSnapshot(n, min, max, sum, sumsq));
+        }
+        return result;
+    }
 }
@@ -0,0 +1,105 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+/**
+ * Circular queue of non-decreasing timestamps of the values of a time window.
+ * The i-th timestamp of the queue belongs to the i-th value of the window.
+ */
+final class TimestampQueue {
+
+    private long[] timestamps = new long[16];
+    private int first = 0;
+    private int size = 0;
+
+    /**
+     * Appends the timestamp of the most recent value.
+     * @throws IllegalArgumentException if the timestamp is less than the last one.
+     */
+    void add(long timestamp) {
+        checkNext(timestamp);
+        if (size == timestamps.length) {
+            grow();
+        }
+        timestamps[index(size++)] = timestamp;
+    }
+
+    /**
+     * Checks that the timestamp can follow the last one.
+     * @throws IllegalArgumentException if the timestamp is less than the last one.
+     */
+    void checkNext(long timestamp) {
+        if (size > 0 && timestamp < last()) {
+            throw new IllegalArgumentException("timestamp " + timestamp
+                    + " is less than the last timestamp " + last());
+        }
+    }
+
+    /**
+     * Returns the number of leading timestamps which are less than or equal to the threshold.
+     * Takes time proportional to the returned number.
+     */
+    int countUpTo(long threshold) {
+        int count = 0;
+        while (count < size && timestamps[index(count)] <= threshold) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Discards the {@code count} oldest timestamps.
+     */
+    void discardFront(int count) {
+        first = index(count);
+        size -= count;
+    }
+
+    /**
+     * Discards the most recent timestamp.
+     */
+    void discardLast() {
+        size--;
+    }
+
+    void clear() {
+        first = 0;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private long last() {
+        return timestamps[index(size - 1)];
+    }
+
+    private int index(int offset) {
+        return (first + offset) % timestamps.length;
+    }
+
+    private void grow() {
+        final long[] newTimestamps = new long[2 * timestamps.length];
+        for (int i = 0; i < size; i++) {
+            newTimestamps[i] = timestamps[index(i)];
+        }
+        timestamps = newTimestamps;
+        first = 0;
+    }
+}
@@ -17,11 +17,26 @@
 
 package com.axibase.math.stat.descriptive;
 
+import org.junit.Assert;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.math.RoundingMode;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
 
 /**
  * test
@@ -74,4 +89,576 @@ public class DescriptiveStatisticsTest {
         MathContext context = new MathContext(256, RoundingMode.HALF_UP);
         System.out.println(stats.getStandardDeviation(context));
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testAggregatesAfterChanges() {
+        DescriptiveStatistics stats = new DescriptiveStatistics(ticket_2353);
+        Assert.assertEquals(0, new BigDecimal("0.02").compareTo(stats.getMin()));
+        Assert.assertEquals(0, new BigDecimal("0.3").compareTo(stats.getMax()));
+        Assert.assertEquals(0, new BigDecimal("0.98").compareTo(stats.getSum()));
+        Assert.assertEquals(0, new BigDecimal("0.2716").compareTo(stats.getSumsq()));
+
+        stats.addValue(new BigDecimal("-1"));
+        Assert.assertEquals(0, new BigDecimal("-1").compareTo(stats.getMin()));
+        Assert.assertEquals(0, new BigDecimal("-0.02").compareTo(stats.getSum()));
+
+        stats.replaceMostRecentValue(new BigDecimal("5"));
+        Assert.assertEquals(0, new BigDecimal("5").compareTo(stats.getMax()));
+        Assert.assertEquals(0, new BigDecimal("0.02").compareTo(stats.getMin()));
+
+        stats.removeMostRecentValue();
+        Assert.assertEquals(0, new BigDecimal("0.3").compareTo(stats.getMax()));
+        Assert.assertEquals(0, new BigDecimal("0.2716").compareTo(stats.getSumsq()));
+
+        stats.clear();
+        Assert.assertNull(stats.getMax());
+        Assert.assertNull(stats.getMin());
+        Assert.assertEquals(0, BigDecimal.ZERO.compareTo(stats.getSum()));
+    }
+
+    @Test
+    public void testRollingSums() {
+        Random generator = new Random(17);
+        DescriptiveStatistics stats = new DescriptiveStatistics(50);
+        for (int i = 0; i < 1000; i++) {
+            stats.addValue(new BigDecimal(BigDecimalGenerator.generateSignedDecimal(3, 2, generator)));
+            if (i % 7 == 0) {
+                stats.replaceMostRecentValue(new BigDecimal(BigDecimalGenerator.generateSignedDecimal(2, 3, generator)));
+            }
+            if (i % 11 == 0) {
+                stats.removeMostRecentValue();
+            }
+            if (i == 500) {
+                stats.setWindowSize(20);
+            }
+            assertSums(stats);
+        }
+    }
+
+    private static void assertSums(DescriptiveStatistics stats) {
+        BigDecimal sum = BigDecimal.ZERO;
+        BigDecimal sumsq = BigDecimal.ZERO;
+        for (BigDecimal value : stats.getValues()) {
+            sum = sum.add(value);
+            sumsq = sumsq.add(value.pow(2));
+        }
+        Assert.assertEquals(sum, stats.getSum());
+        Assert.assertEquals(sumsq, stats.getSumsq());
+    }
+
+    @Test
+    public void testRollingSumsScale() {
+        DescriptiveStatistics stats = new DescriptiveStatistics(2);
+        stats.addValue(new BigDecimal("1.5"));
+        Assert.assertEquals(new BigDecimal("1.5"), stats.getSum());
+        stats.addValue(new BigDecimal("1"));
+        stats.addValue(new BigDecimal("2"));
+        Assert.assertEquals(new BigDecimal("3"), stats.getSum());
+        Assert.assertEquals(new BigDecimal("5"), stats.getSumsq());
+        Assert.assertEquals(new BigDecimal("0.5"), stats.getVariance());
+        DescriptiveStatistics infinite = new DescriptiveStatistics();
+        infinite.addValue(new BigDecimal("1"));
+        infinite.addValue(new BigDecimal("2"));
+        Assert.assertEquals(infinite.getVariance(), stats.getVariance());
+    }
+
+    @Test
+    public void testIntegralValues() {
+        DescriptiveStatistics stats = new DescriptiveStatistics();
+        stats.addValue(9007199254740993L);
+        stats.addValue(-3);
+        stats.addUnscaled(125, 2);
+        stats.addValue(0.5);
+        Assert.assertArrayEquals(new BigDecimal[] {new BigDecimal("9007199254740993"), new BigDecimal("-3"),
+                new BigDecimal("1.25"), new BigDecimal("0.5")}, stats.getValues());
+    }
+
+    @Test
+    public void testShrunkWindow() {
+        DescriptiveStatistics stats = new DescriptiveStatistics(100000);
+        for (int i = 0; i < 250000; i++) {
+            stats.addValue(BigDecimal.valueOf(i));
+        }
+        stats.setWindowSize(10);
+        Assert.assertEquals(BigDecimal.valueOf(249990), stats.getMin());
+        for (int i = 0; i < 25; i++) {
+            stats.addValue(BigDecimal.valueOf(-i));
+        }
+        Assert.assertEquals(BigDecimal.valueOf(-24), stats.getMin());
+        Assert.assertEquals(BigDecimal.valueOf(-15), stats.getMax());
+        Assert.assertEquals(10, stats.getN());
+    }
+
+    @Test
+    public void testRollingMinMax() {
+        Random generator = new Random(23);
+        DescriptiveStatistics stats = new DescriptiveStatistics(30);
+        for (int i = 0; i < 2000; i++) {
+            stats.addValue(BigDecimal.valueOf(generator.nextInt(10)));
+            if (generator.nextInt(5) == 0) {
+                stats.replaceMostRecentValue(BigDecimal.valueOf(generator.nextInt(10)));
+            }
+            if (generator.nextInt(4) == 0) {
+                stats.removeMostRecentValue();
+            }
+            if (i == 1000) {
+                stats.setWindowSize(7);
+            }
+            BigDecimal[] values = stats.getValues();
+            BigDecimal min = values.length > 0 ? values[0] : null;
+            BigDecimal max = min;
+            for (BigDecimal value : values) {
+                min = min.min(value);
+                max = max.max(value);
+            }
+            Assert.assertEquals(min, stats.getMin());
+            Assert.assertEquals(max, stats.getMax());
+        }
+    }
+
+    @Test
+    public void testRollingMinMaxRestore() {
+        // the tracker restores the values pushed out by the discarded one without the window storage
+        RollingMinMax window = new RollingMinMax(new ResizableDecimalArray());
+        for (int i = 1; i <= 100000; i++) {
+            window.push(BigDecimal.valueOf(i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            window.push(BigDecimal.ZERO);
+            Assert.assertEquals(BigDecimal.ZERO, window.getMin());
+            window.discardLast();
+            Assert.assertEquals(BigDecimal.ONE, window.getMin());
+            Assert.assertEquals(BigDecimal.valueOf(100000), window.getMax());
+        }
+        window.discardFront(99990);
+        window.push(BigDecimal.TEN);
+        window.discardLast();
+        Assert.assertEquals(BigDecimal.valueOf(99991), window.getMin());
+        window.discardLast();
+        Assert.assertEquals(BigDecimal.valueOf(99999), window.getMax());
+    }
+
+    @Test
+    public void testIndexedPercentile() {
+        Random generator = new Random(31);
+        DescriptiveStatistics indexed = new DescriptiveStatistics(100);
+        indexed.setIndexedPercentile(true);
+        DescriptiveStatistics plain = new DescriptiveStatistics(100);
+        BigDecimal[] ps = {new BigDecimal("0"), new BigDecimal("12.5"), new BigDecimal("50"),
+                new BigDecimal("95"), new BigDecimal("100")};
+        for (int i = 0; i < 1000; i++) {
+            BigDecimal value = BigDecimal.valueOf(generator.nextInt(200) - 50, 1);
+            indexed.addValue(value);
+            plain.addValue(value);
+            if (i % 13 == 0) {
+                indexed.replaceMostRecentValue(BigDecimal.ONE);
+                plain.replaceMostRecentValue(BigDecimal.ONE);
+            }
+            if (i % 17 == 0) {
+                indexed.removeMostRecentValue();
+                plain.removeMostRecentValue();
+            }
+            for (BigDecimal p : ps) {
+                BigDecimal expected = plain.getPercentile(p);
+                BigDecimal actual = indexed.getPercentile(p);
+                if (expected == null) {
+                    Assert.assertNull(actual);
+                } else {
+                    Assert.assertEquals(0, expected.compareTo(actual));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testAddValues() {
+        Random generator = new Random(37);
+        DescriptiveStatistics bulk = new DescriptiveStatistics(50);
+        DescriptiveStatistics single = new DescriptiveStatistics(50);
+        bulk.setIndexedPercentile(true);
+        for (int batch = 0; batch < 100; batch++) {
+            BigDecimal[] values = new BigDecimal[generator.nextInt(80)];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = BigDecimal.valueOf(generator.nextInt(1000) - 500, 2);
+            }
+            int from = values.length == 0 ? 0 : generator.nextInt(values.length);
+            bulk.addValues(values, from, values.length);
+            for (int i = from; i < values.length; i++) {
+                single.addValue(values[i]);
+            }
+            Assert.assertArrayEquals(single.getValues(), bulk.getValues());
+            Assert.assertEquals(single.getSum(), bulk.getSum());
+            Assert.assertEquals(single.getSumsq(), bulk.getSumsq());
+            Assert.assertEquals(single.getMin(), bulk.getMin());
+            Assert.assertEquals(single.getMax(), bulk.getMax());
+            BigDecimal median = single.getPercentile(new BigDecimal("50"));
+            if (median == null) {
+                Assert.assertNull(bulk.getPercentile(new BigDecimal("50")));
+            } else {
+                Assert.assertEquals(0, median.compareTo(bulk.getPercentile(new BigDecimal("50"))));
+            }
+        }
+
+        DescriptiveStatistics infinite = new DescriptiveStatistics();
+        infinite.addValues(Arrays.asList(BigDecimal.ONE, BigDecimal.TEN));
+        infinite.addValues(new BigDecimal[] {BigDecimal.ZERO}, 0, 1);
+        Assert.assertEquals(3, infinite.getN());
+        Assert.assertEquals(new BigDecimal(11), infinite.getSum());
+    }
+
+    @Test
+    public void testTimeWindow() {
+        Random generator = new Random(41);
+        DescriptiveStatistics stats = new DescriptiveStatistics(5, TimeUnit.MINUTES);
+        stats.setIndexedPercentile(true);
+        final long duration = TimeUnit.MINUTES.toMillis(5);
+        long[] times = new long[500];
+        BigDecimal[] values = new BigDecimal[500];
+        long time = 0;
+        for (int i = 0; i < values.length; i++) {
+            time += generator.nextInt(30000);
+            times[i] = time;
+            values[i] = BigDecimal.valueOf(generator.nextInt(1000), 1);
+            stats.addValue(time, values[i]);
+
+            DescriptiveStatistics expected = new DescriptiveStatistics();
+            for (int j = 0; j <= i; j++) {
+                if (times[j] > time - duration) {
+                    expected.addValue(values[j]);
+                }
+            }
+            Assert.assertArrayEquals(expected.getValues(), stats.getValues());
+            Assert.assertEquals(expected.getSum(), stats.getSum());
+            Assert.assertEquals(expected.getMin(), stats.getMin());
+            Assert.assertEquals(expected.getMax(), stats.getMax());
+            Assert.assertEquals(0, expected.getPercentile(new BigDecimal("90"))
+                    .compareTo(stats.getPercentile(new BigDecimal("90"))));
+        }
+
+        stats.evictExpired(time + duration - 1);
+        Assert.assertEquals(1, stats.getN());
+        stats.evictExpired(time + duration);
+        Assert.assertEquals(0, stats.getN());
+
+        try {
+            stats.addValue(BigDecimal.ONE);
+            Assert.fail("Expecting IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        stats.addValue(time, BigDecimal.ONE);
+        try {
+            stats.addValue(time - 1, BigDecimal.ONE);
+            Assert.fail("Expecting IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        // the rejected value leaves the window usable
+        Assert.assertEquals(1, stats.getN());
+        stats.addValue(time + 1, BigDecimal.TEN);
+        Assert.assertEquals(2, stats.getN());
+    }
+
+    @Test
+    public void testSubMillisecondWindowDuration() {
+        try {
+            new DescriptiveStatistics(500, TimeUnit.MICROSECONDS);
+            Assert.fail("Expecting IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        DescriptiveStatistics stats = new DescriptiveStatistics(1000, TimeUnit.MICROSECONDS);
+        Assert.assertEquals(1, stats.getWindowDuration());
+        for (int i = 0; i < 3; i++) {
+            stats.addValue(10, BigDecimal.valueOf(i));
+            Assert.assertEquals(i + 1, stats.getN());
+        }
+        stats.addValue(11, BigDecimal.TEN);
+        Assert.assertEquals(1, stats.getN());
+        Assert.assertEquals(BigDecimal.TEN, stats.getSum());
+    }
+
+    @Test
+    public void testParallelAggregation() {
+        Random generator = new Random(43);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        DescriptiveStatistics parallel = new DescriptiveStatistics();
+        parallel.setParallelAggregation(pool, 64);
+        DescriptiveStatistics sequential = new DescriptiveStatistics();
+        for (int i = 0; i < 10000; i++) {
+            // equal values of different scales check that the first extremum is kept
+            BigDecimal value = new BigDecimal(generator.nextInt(200) - 100).setScale(generator.nextInt(3));
+            parallel.addValue(value);
+            sequential.addValue(value);
+            if (i % 997 == 0) {
+                Assert.assertEquals(sequential.getSum(), parallel.getSum());
+            }
+        }
+        Assert.assertEquals(sequential.getSum(), parallel.getSum());
+        Assert.assertEquals(sequential.getSumsq(), parallel.getSumsq());
+        Assert.assertEquals(sequential.getMin(), parallel.getMin());
+        Assert.assertEquals(sequential.getMax(), parallel.getMax());
+        pool.shutdown();
+    }
+
+    @Test
+    public void testSortedValues() {
+        Random generator = new Random(47);
+        DescriptiveStatistics stats = new DescriptiveStatistics(30);
+        BigDecimal[] ps = {new BigDecimal("0"), new BigDecimal("25"), new BigDecimal("50"), new BigDecimal("100")};
+        BigDecimal value = BigDecimal.ZERO;
+        for (int i = 0; i < 200; i++) {
+            value = value.add(BigDecimal.valueOf(generator.nextInt(3), 1));
+            stats.addValue(value);
+            if (i == 150) {
+                stats.replaceMostRecentValue(BigDecimal.ZERO);
+                Assert.assertFalse(stats.isSorted());
+            }
+            if (i < 150) {
+                Assert.assertTrue(stats.isSorted());
+            }
+            DescriptiveStatistics expected = new DescriptiveStatistics();
+            expected.addValue(BigDecimal.ONE);
+            expected.addValue(BigDecimal.ZERO);
+            for (BigDecimal stored : stats.getValues()) {
+                expected.addValue(stored);
+            }
+            expected.setWindowSize(stats.getValues().length);
+            Assert.assertEquals(i == 0, expected.isSorted());
+            Assert.assertEquals(expected.getMin(), stats.getMin());
+            Assert.assertEquals(expected.getMax(), stats.getMax());
+            BigDecimal[] expectedPercentiles = expected.getPercentiles(ps);
+            BigDecimal[] percentiles = stats.getPercentiles(ps);
+            for (int j = 0; j < ps.length; j++) {
+                Assert.assertEquals(0, expectedPercentiles[j].compareTo(percentiles[j]));
+                Assert.assertEquals(0, expectedPercentiles[j].compareTo(stats.getPercentile(ps[j])));
+            }
+        }
+        // the unsorted value leaves the window
+        Assert.assertFalse(stats.isSorted());
+        stats.clear();
+        Assert.assertTrue(stats.isSorted());
+    }
+
+    @Test
+    public void testSortedMaximum() {
+        Random generator = new Random(53);
+        DescriptiveStatistics stats = new DescriptiveStatistics();
+        DescriptiveStatistics windowed = new DescriptiveStatistics(40);
+        BigDecimal value = BigDecimal.ZERO;
+        for (int i = 0; i < 500; i++) {
+            // equal values of different scales check that the first maximum is returned
+            if (generator.nextInt(4) == 0) {
+                value = value.add(BigDecimal.ONE);
+            }
+            BigDecimal scaled = value.setScale(generator.nextInt(3));
+            if (i % 50 == 0) {
+                BigDecimal[] batch = {scaled, scaled.setScale(3), value};
+                stats.addValues(batch, 0, batch.length);
+                windowed.addValues(batch, 0, batch.length);
+            } else {
+                stats.addValue(scaled);
+                windowed.addValue(scaled);
+            }
+            if (i % 7 == 0) {
+                stats.replaceMostRecentValue(value.setScale(4));
+                windowed.replaceMostRecentValue(value.setScale(4));
+            }
+            if (i % 13 == 0) {
+                stats.removeMostRecentValue();
+                windowed.removeMostRecentValue();
+            }
+            Assert.assertTrue(stats.isSorted());
+            Assert.assertEquals(firstMaximum(stats.getValues()), stats.getMax());
+            Assert.assertEquals(firstMaximum(windowed.getValues()), windowed.getMax());
+        }
+    }
+
+    private static BigDecimal firstMaximum(BigDecimal[] values) {
+        BigDecimal max = values[0];
+        for (BigDecimal value : values) {
+            if (value.compareTo(max) > 0) {
+                max = value;
+            }
+        }
+        return max;
+    }
+
+    @Test
+    public void testAdopt() {
+        BigDecimal[] values = {new BigDecimal("5"), new BigDecimal("1"), new BigDecimal("3"), new BigDecimal("2")};
+        DescriptiveStatistics adopted = DescriptiveStatistics.adopt(values);
+        DescriptiveStatistics copied = new DescriptiveStatistics(values);
+        Assert.assertFalse(adopted.isSorted());
+        Assert.assertEquals(copied.getPercentile(new BigDecimal("50")), adopted.getPercentile(new BigDecimal("50")));
+        Assert.assertArrayEquals(copied.getValues(), adopted.getValues());
+        adopted.addValue(BigDecimal.ZERO);
+        Assert.assertEquals(BigDecimal.ZERO, adopted.getMin());
+    }
+
+    @Test
+    public void testSnapshot() throws IOException {
+        Random generator = new Random(53);
+        DescriptiveStatistics stats = new DescriptiveStatistics(100, new MathContext(20, RoundingMode.HALF_EVEN));
+        for (int i = 0; i < 300; i++) {
+            stats.addValue(BigDecimal.valueOf(generator.nextInt(100000) - 50000, generator.nextInt(4)));
+        }
+        Path file = Files.createTempFile("statistics", ".snapshot");
+        DescriptiveStatistics opened;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            stats.writeSnapshot(channel);
+            opened = DescriptiveStatistics.openSnapshot(channel);
+        } finally {
+            Files.delete(file);
+        }
+        Assert.assertEquals(ResizableDecimalArray.StorageMode.COMPACT, opened.getStorageMode());
+        assertSameStatistics(stats, opened);
+        // the values are copied from the mapped region by the first change
+        for (int i = 0; i < 50; i++) {
+            BigDecimal value = BigDecimal.valueOf(generator.nextInt(100000), generator.nextInt(4));
+            stats.addValue(value);
+            opened.addValue(value);
+        }
+        assertSameStatistics(stats, opened);
+
+        DescriptiveStatistics large = new DescriptiveStatistics();
+        large.addValue(new BigDecimal("1234567890123456789012345678901234567890.5"));
+        large.addValue(BigDecimal.ONE);
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        large.writeSnapshot(Channels.newChannel(output));
+        ByteBuffer buffer = ByteBuffer.wrap(output.toByteArray());
+        DescriptiveStatistics restored = DescriptiveStatistics.readSnapshot(buffer);
+        Assert.assertFalse(buffer.hasRemaining());
+        assertSameStatistics(large, restored);
+    }
+
+    @Test
+    public void testTruncatedSnapshot() throws IOException {
+        // 9 bytes per value of 300 million values overflow the int arithmetic
+        for (long n : new long[] {300000000L, 3L, 1L << 40}) {
+            ByteBuffer header = ByteBuffer.allocate(256);
+            header.put((byte) 1);
+            header.put((byte) 2);
+            BinaryCodec.writeVarLong(header, BinaryCodec.zigzag(-1));
+            BinaryCodec.writeMathContext(header, MathContext.DECIMAL64);
+            BinaryCodec.writeVarLong(header, n);
+            for (int i = 0; i < 4; i++) {
+                BinaryCodec.writeDecimal(header, BigDecimal.ONE);
+            }
+            header.flip();
+            try {
+                DescriptiveStatistics.readSnapshot(header);
+                Assert.fail("Expecting an exception for " + n + " values");
+            } catch (BufferUnderflowException ex) {
+                Assert.assertTrue(n < Integer.MAX_VALUE);
+            } catch (IllegalArgumentException ex) {
+                Assert.assertTrue(n > Integer.MAX_VALUE);
+            }
+            Assert.assertEquals(0, header.position());
+        }
+
+        // the window of 5 values is not restored with 6 values
+        DescriptiveStatistics window = new DescriptiveStatistics(6);
+        for (int i = 0; i < 6; i++) {
+            window.addValue(BigDecimal.valueOf(i));
+        }
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        window.writeSnapshot(Channels.newChannel(output));
+        byte[] bytes = output.toByteArray();
+        // the zigzag varint of the window size follows the version and the flags
+        Assert.assertEquals(12, bytes[2]);
+        bytes[2] = 10;
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        try {
+            DescriptiveStatistics.readSnapshot(buffer);
+            Assert.fail("Expecting IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            Assert.assertEquals(0, buffer.position());
+        }
+        bytes[2] = 12;
+        Assert.assertArrayEquals(window.getValues(), DescriptiveStatistics.readSnapshot(buffer).getValues());
+    }
+
+    @Test
+    public void testSpillStorage() throws IOException {
+        Random generator = new Random(59);
+        Path directory = Files.createTempDirectory("spill");
+        try {
+            for (int distinct : new int[] {3, 100000}) {
+                DescriptiveStatistics spilled = new DescriptiveStatistics();
+                spilled.setSpillStorage(directory.toFile(), 64);
+                DescriptiveStatistics expected = new DescriptiveStatistics();
+                for (int i = 0; i < 1000; i++) {
+                    BigDecimal value = BigDecimal.valueOf(generator.nextInt(distinct) - distinct / 2, generator.nextInt(3));
+                    if (i == 500) {
+                        value = new BigDecimal("1234567890123456789012345678901234567890.5");
+                    }
+                    spilled.addValue(value);
+                    expected.addValue(value);
+                }
+                BigDecimal[] tail = {BigDecimal.ONE, BigDecimal.TEN, new BigDecimal("-7.5")};
+                spilled.addValues(tail, 0, tail.length);
+                expected.addValues(tail, 0, tail.length);
+                spilled.replaceMostRecentValue(BigDecimal.ZERO);
+                expected.replaceMostRecentValue(BigDecimal.ZERO);
+                spilled.removeMostRecentValue();
+                expected.removeMostRecentValue();
+
+                Assert.assertEquals(expected.getN(), spilled.getN());
+                Assert.assertArrayEquals(expected.getValues(), spilled.getValues());
+                Assert.assertEquals(expected.getElement(777), spilled.getElement(777));
+                Assert.assertEquals(expected.getMin(), spilled.getMin());
+                Assert.assertEquals(expected.getMax(), spilled.getMax());
+                Assert.assertEquals(expected.getSum(), spilled.getSum());
+                Assert.assertEquals(expected.getVariance(), spilled.getVariance());
+                BigDecimal[] ps = {new BigDecimal("0"), new BigDecimal("1"), new BigDecimal("33.3"),
+                        new BigDecimal("50"), new BigDecimal("99.9"), new BigDecimal("100")};
+                // equal values of different scales may be selected
+                BigDecimal[] expectedPercentiles = expected.getPercentiles(ps);
+                BigDecimal[] percentiles = spilled.getPercentiles(ps);
+                for (int j = 0; j < ps.length; j++) {
+                    Assert.assertEquals(0, expectedPercentiles[j].compareTo(percentiles[j]));
+                    Assert.assertEquals(0, expectedPercentiles[j].compareTo(spilled.getPercentile(ps[j])));
+                }
+
+                // the removals empty the memory and read the spilled segments back
+                for (int i = 0; i < 150; i++) {
+                    spilled.removeMostRecentValue();
+                    expected.removeMostRecentValue();
+                }
+                Assert.assertEquals(expected.replaceMostRecentValue(BigDecimal.ONE),
+                        spilled.replaceMostRecentValue(BigDecimal.ONE));
+                // 852 values are 13 segments and 20 values in memory, the replacement reads a segment back
+                for (int i = 0; i < 20; i++) {
+                    spilled.removeMostRecentValue();
+                    expected.removeMostRecentValue();
+                }
+                Assert.assertEquals(expected.replaceMostRecentValue(BigDecimal.TEN),
+                        spilled.replaceMostRecentValue(BigDecimal.TEN));
+                Assert.assertEquals(expected.getN(), spilled.getN());
+                Assert.assertArrayEquals(expected.getValues(), spilled.getValues());
+                Assert.assertEquals(expected.getMin(), spilled.getMin());
+                Assert.assertEquals(expected.getMax(), spilled.getMax());
+                Assert.assertEquals(expected.getSum(), spilled.getSum());
+                Assert.assertEquals(0, expected.getPercentile(new BigDecimal("50"))
+                        .compareTo(spilled.getPercentile(new BigDecimal("50"))));
+            }
+        } finally {
+            File[] files = directory.toFile().listFiles();
+            Assert.assertEquals(0, files == null ? 0 : files.length);
+            Files.delete(directory);
+        }
+    }
+
+    private static void assertSameStatistics(DescriptiveStatistics expected, DescriptiveStatistics actual) {
+        Assert.assertEquals(expected.getWindowSize(), actual.getWindowSize());
+        Assert.assertEquals(expected.isSorted(), actual.isSorted());
+        Assert.assertArrayEquals(expected.getValues(), actual.getValues());
+        Assert.assertEquals(expected.getMin(), actual.getMin());
+        Assert.assertEquals(expected.getMax(), actual.getMax());
+        Assert.assertEquals(expected.getSum(), actual.getSum());
+        Assert.assertEquals(expected.getMean(), actual.getMean());
+        Assert.assertEquals(expected.getVariance(), actual.getVariance());
+        Assert.assertEquals(expected.getPercentile(new BigDecimal("90")), actual.getPercentile(new BigDecimal("90")));
+    }
+}
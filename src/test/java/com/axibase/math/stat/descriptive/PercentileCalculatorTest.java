@@ -21,6 +21,7 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.math.BigDecimal;
+import java.util.Random;
 
 import static java.math.BigDecimal.ZERO;
 import static java.math.BigDecimal.ONE;
@@ -111,4 +112,27 @@ public class PercentileCalculatorTest {
         } catch (IllegalArgumentException ex) {
         }
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testEvaluateBatch() throws Exception {
+        Random generator = new Random(5);
+        BigDecimal[] values = new BigDecimal[10000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = BigDecimal.valueOf(generator.nextInt(3000), 2);
+        }
+        BigDecimal[] ps = {new BigDecimal("99.9"), new BigDecimal("50"), new BigDecimal("0"),
+                new BigDecimal("90"), new BigDecimal("99"), new BigDecimal("95"), new BigDecimal("50"),
+                new BigDecimal("100"), new BigDecimal("0.01")};
+        BigDecimal[] batch = new PercentileCalculator(values).evaluate(ps);
+        for (int i = 0; i < ps.length; i++) {
+            BigDecimal single = new PercentileCalculator(values).evaluate(ps[i]);
+            Assert.assertEquals("percentile " + ps[i], 0, single.compareTo(batch[i]));
+        }
+
+        PercentileCalculator percentileCalculator = new PercentileCalculator(digits);
+        Assert.assertArrayEquals(new BigDecimal[] {ZERO, new BigDecimal("9")},
+                percentileCalculator.evaluate(new BigDecimal[] {ZERO, new BigDecimal("100")}));
+        Assert.assertArrayEquals(new BigDecimal[] {null},
+                new PercentileCalculator(new BigDecimal[0]).evaluate(new BigDecimal[] {ONE}));
+    }
+}
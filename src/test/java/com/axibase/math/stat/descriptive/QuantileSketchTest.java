@@ -0,0 +1,91 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Random;
+
+/**
+ * test
+ */
+public class QuantileSketchTest {
+
+    private static final int COUNT = 100000;
+
+    @Test
+    public void testRankError() {
+        QuantileSketch sketch = new QuantileSketch(200, new Random(1));
+        for (int i = 0; i < COUNT; i++) {
+            // values are a permutation of 0, ..., COUNT - 1 so the exact rank of a value is the value itself
+            sketch.update(BigDecimal.valueOf((i * 7919L) % COUNT));
+        }
+        Assert.assertEquals(COUNT, sketch.getN());
+        for (int p = 1; p < 100; p++) {
+            BigDecimal estimate = sketch.getPercentile(BigDecimal.valueOf(p));
+            Assert.assertTrue("p = " + p + ", estimate " + estimate,
+                    Math.abs(estimate.longValue() - p * COUNT / 100) < COUNT / 50);
+        }
+        Assert.assertEquals(BigDecimal.ZERO, sketch.getPercentile(BigDecimal.ZERO));
+        Assert.assertEquals(BigDecimal.valueOf(COUNT - 1), sketch.getPercentile(BigDecimal.valueOf(100)));
+    }
+
+    @Test
+    public void testMerge() {
+        QuantileSketch merged = new QuantileSketch(100, new Random(2));
+        for (int part = 0; part < 10; part++) {
+            QuantileSketch sketch = new QuantileSketch(100, new Random(part));
+            for (int i = part; i < COUNT; i += 10) {
+                sketch.update(BigDecimal.valueOf(i));
+            }
+            merged.merge(sketch);
+        }
+        Assert.assertEquals(COUNT, merged.getN());
+        BigDecimal median = merged.getPercentile(BigDecimal.valueOf(50));
+        Assert.assertTrue("median " + median, Math.abs(median.longValue() - COUNT / 2) < COUNT / 25);
+
+        try {
+            merged.merge(new QuantileSketch(200));
+            Assert.fail("Expecting IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testSummaryStatistics() {
+        SummaryStatistics stats = new SummaryStatistics();
+        try {
+            stats.getPercentile(BigDecimal.valueOf(50));
+            Assert.fail("Expecting IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        stats.setQuantileSketch(new QuantileSketch());
+        Assert.assertNull(stats.getPercentile(BigDecimal.valueOf(50)));
+        for (int i = 1; i <= 9; i++) {
+            stats.addValue(BigDecimal.valueOf(i));
+        }
+        // small streams are stored exactly
+        Assert.assertEquals(BigDecimal.valueOf(5), stats.getPercentile(BigDecimal.valueOf(50)));
+        stats.clear();
+        Assert.assertEquals(0, stats.getQuantileSketch().getN());
+    }
+}
@@ -24,6 +24,7 @@ import org.junit.Test;
 
 import java.math.BigDecimal;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * test
@@ -538,33 +539,406 @@ public class ResizableDecimalArrayTest extends DecimalArrayAbstractTest{
         Assert.assertEquals(v2, a.getElement(index));
     }
 
-    /*
     @Test
-    public void testCompute() {
-        final ResizableDecimalArray a = new ResizableDecimalArray();
-        final int getMax = 20;
-        for (int i = 1; i <= getMax; i++) {
-            a.setElement(i, new BigDecimal(i));
+    public void testAdopt() {
+        final BigDecimal[] values = toBD(new double[] {3, 1, 2});
+        final ResizableDecimalArray a = ResizableDecimalArray.adopt(values);
+        Assert.assertSame(values, a.getArrayRef());
+        Assert.assertEquals(3, a.getNumElements());
+        Assert.assertArrayEquals(values, a.getElements());
+        a.addElement(BigDecimal.TEN);
+        Assert.assertEquals(BigDecimal.TEN, a.getElement(3));
+        Assert.assertEquals(new BigDecimal(3), a.getElement(0));
+
+        final ResizableDecimalArray empty = ResizableDecimalArray.adopt(new BigDecimal[0]);
+        empty.addElement(BigDecimal.ONE);
+        Assert.assertEquals(1, empty.getNumElements());
+    }
+
+    @Test
+    public void testCompactStorage() {
+        final ResizableDecimalArray a = new ResizableDecimalArray(2, ResizableDecimalArray.StorageMode.COMPACT);
+        final ResizableDecimalArray b = new ResizableDecimalArray(2);
+        Assert.assertTrue(a.isCompact());
+        for (int i = 0; i < 10; i++) {
+            final BigDecimal value = BigDecimal.valueOf(i * 7 - 20, i % 3);
+            a.addElement(value);
+            b.addElement(value);
+        }
+        Assert.assertEquals(b.addElementRolling(new BigDecimal("1.50")), a.addElementRolling(new BigDecimal("1.50")));
+        Assert.assertEquals(b.substituteMostRecentElement(BigDecimal.TEN), a.substituteMostRecentElement(BigDecimal.TEN));
+        a.discardFrontElements(3);
+        b.discardFrontElements(3);
+        a.addElements(new BigDecimal[] {BigDecimal.ONE, new BigDecimal("-0.001")});
+        b.addElements(new BigDecimal[] {BigDecimal.ONE, new BigDecimal("-0.001")});
+        Assert.assertTrue(a.isCompact());
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+        Assert.assertEquals(b.getElement(2), a.getElement(2));
+        verifyEquality(a, a.copy());
+
+        // a value which does not fit converts the storage to BigDecimals
+        final BigDecimal big = new BigDecimal(Long.MAX_VALUE).add(BigDecimal.ONE);
+        a.addElement(big);
+        b.addElement(big);
+        Assert.assertFalse(a.isCompact());
+        Assert.assertEquals(ResizableDecimalArray.StorageMode.COMPACT, a.getStorageMode());
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+
+        a.clear();
+        Assert.assertTrue(a.isCompact());
+        a.addElement(new BigDecimal("1E+200"));
+        Assert.assertFalse(a.isCompact());
+
+        b.discardMostRecentElements(1);
+        b.setStorageMode(ResizableDecimalArray.StorageMode.COMPACT);
+        Assert.assertTrue(b.isCompact());
+        b.setStorageMode(ResizableDecimalArray.StorageMode.DECIMAL);
+        Assert.assertFalse(b.isCompact());
+    }
+
+    @Test
+    public void testGetElementsRange() throws InterruptedException {
+        final ResizableDecimalArray a = new ResizableDecimalArray(4, ResizableDecimalArray.StorageMode.COMPACT);
+        for (int i = 0; i < 10; i++) {
+            a.addElement(BigDecimal.valueOf(i, 1));
+        }
+        a.discardFrontElements(2);
+        final BigDecimal[] range = new BigDecimal[5];
+        a.getElements(3, range, 1, 4);
+        Assert.assertArrayEquals(new BigDecimal[] {null, BigDecimal.valueOf(5, 1), BigDecimal.valueOf(6, 1),
+                BigDecimal.valueOf(7, 1), BigDecimal.valueOf(8, 1)}, range);
+        try {
+            a.getElements(5, range, 0, 4);
+            Assert.fail("Expecting ArrayIndexOutOfBoundsException");
+        } catch (ArrayIndexOutOfBoundsException ex) {
+            // expected
+        }
+
+        // readers see consecutive values while the writer rolls the array
+        final ResizableDecimalArray window = new ResizableDecimalArray();
+        for (int i = 0; i < 100; i++) {
+            window.addElement(BigDecimal.valueOf(i));
         }
+        final AtomicBoolean failed = new AtomicBoolean();
+        final Thread[] readers = new Thread[4];
+        for (int t = 0; t < readers.length; t++) {
+            readers[t] = new Thread() {
+                @Override
+                public void run() {
+                    final BigDecimal[] values = new BigDecimal[100];
+                    for (int j = 0; j < 2000; j++) {
+                        window.getElements(0, values, 0, values.length);
+                        for (int i = 1; i < values.length; i++) {
+                            if (values[i].intValue() != values[i - 1].intValue() + 1) {
+                                failed.set(true);
+                            }
+                        }
+                    }
+                }
+            };
+            readers[t].start();
+        }
+        for (int i = 100; i < 100000; i++) {
+            window.addElementRolling(BigDecimal.valueOf(i));
+        }
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        Assert.assertFalse(failed.get());
+    }
 
-        final MathArrays.Function add = new MathArrays.Function() {
-            public double evaluate(BigDecimal[] a, int index, int num) {
-                double sum = 0;
+    @Test
+    public void testOffHeapStorage() {
+        final ResizableDecimalArray a = new ResizableDecimalArray(2, ResizableDecimalArray.StorageMode.OFF_HEAP);
+        final ResizableDecimalArray b = new ResizableDecimalArray(2);
+        Assert.assertTrue(a.isCompact());
+        for (int i = 0; i < 100; i++) {
+            final BigDecimal value = BigDecimal.valueOf(i * 7919L - 300000, i % 5);
+            a.addElement(value);
+            b.addElement(value);
+        }
+        for (int i = 0; i < 50; i++) {
+            Assert.assertEquals(b.addElementRolling(BigDecimal.valueOf(i, 2)), a.addElementRolling(BigDecimal.valueOf(i, 2)));
+        }
+        a.discardFrontElements(60);
+        b.discardFrontElements(60);
+        a.setElement(40, new BigDecimal("-0.5"));
+        b.setElement(40, new BigDecimal("-0.5"));
+        Assert.assertTrue(a.isCompact());
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+        verifyEquality(a, a.copy());
+
+        a.setStorageMode(ResizableDecimalArray.StorageMode.COMPACT);
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+        a.setStorageMode(ResizableDecimalArray.StorageMode.OFF_HEAP);
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+
+        a.addElement(new BigDecimal("1E+200"));
+        Assert.assertFalse(a.isCompact());
+        a.clear();
+        Assert.assertTrue(a.isCompact());
+        Assert.assertEquals(ResizableDecimalArray.StorageMode.OFF_HEAP, a.getStorageMode());
+    }
+
+    @Test
+    public void testCircularStorage() {
+        for (ResizableDecimalArray.StorageMode mode : ResizableDecimalArray.StorageMode.values()) {
+            final ResizableDecimalArray a = new ResizableDecimalArray(2, mode);
+            final ResizableDecimalArray b = new ResizableDecimalArray(2);
+            a.setCircular(true);
+            Assert.assertTrue(a.isCircular());
+            for (int i = 0; i < 30; i++) {
+                a.addElement(BigDecimal.valueOf(i, i % 3));
+                b.addElement(BigDecimal.valueOf(i, i % 3));
+            }
+            final int capacity = a.getCapacity();
+            for (int i = 0; i < 100; i++) {
+                final BigDecimal value = BigDecimal.valueOf(-i, i % 4);
+                Assert.assertEquals(b.addElementRolling(value), a.addElementRolling(value));
+                Assert.assertEquals(b.getElement(29), a.getElement(29));
+            }
+            // rolling inserts neither expand nor shift the circular storage
+            Assert.assertEquals(capacity, a.getCapacity());
+            Assert.assertArrayEquals(b.getElements(), a.getElements());
+            final BigDecimal[] ref = a.getArrayRef();
+            for (int i = 0; i < a.getNumElements(); i++) {
+                Assert.assertEquals(b.getElement(i), ref[a.getStartIndex() + i]);
+            }
+            verifyEquality(a, a.copy());
+
+            a.addElements(new BigDecimal[] {BigDecimal.ONE, BigDecimal.TEN});
+            b.addElements(new BigDecimal[] {BigDecimal.ONE, BigDecimal.TEN});
+            a.substituteMostRecentElement(BigDecimal.ZERO);
+            b.substituteMostRecentElement(BigDecimal.ZERO);
+            a.discardFrontElements(5);
+            b.discardFrontElements(5);
+            a.addElementRolling(new BigDecimal("1E+200"));
+            b.addElementRolling(new BigDecimal("1E+200"));
+            Assert.assertArrayEquals(b.getElements(), a.getElements());
+            a.setStorageMode(ResizableDecimalArray.StorageMode.COMPACT);
+            Assert.assertArrayEquals(b.getElements(), a.getElements());
+
+            a.setElement(40, BigDecimal.ONE);
+            b.setElement(40, BigDecimal.ONE);
+            Assert.assertArrayEquals(b.getElements(), a.getElements());
+            a.addElementRolling(BigDecimal.TEN);
+            b.addElementRolling(BigDecimal.TEN);
+            a.setCircular(false);
+            Assert.assertFalse(a.isCircular());
+            Assert.assertArrayEquals(b.getElements(), a.getElements());
+        }
+    }
+
+    @Test
+    public void testChunkedStorage() {
+        final ResizableDecimalArray a = new ResizableDecimalArray(2, ResizableDecimalArray.StorageMode.CHUNKED);
+        final ResizableDecimalArray b = new ResizableDecimalArray(2);
+        final BigDecimal[] values = new BigDecimal[20000];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = BigDecimal.valueOf(i * 7919L - 300000, i % 5);
+        }
+        for (int i = 0; i < 30000; i++) {
+            a.addElement(values[i % values.length]);
+            b.addElement(values[i % values.length]);
+        }
+        a.addElements(values, 5, 19000);
+        b.addElements(values, 5, 19000);
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+        final int capacity = a.getCapacity();
+        for (int i = 0; i < 100000; i++) {
+            final BigDecimal value = BigDecimal.valueOf(i, i % 3);
+            Assert.assertEquals(b.addElementRolling(value), a.addElementRolling(value));
+        }
+        // the rolling window reuses the released chunks instead of growing
+        Assert.assertTrue(a.getCapacity() <= capacity + 16384);
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+
+        a.discardFrontElements(20000);
+        b.discardFrontElements(20000);
+        a.discardMostRecentElements(17000);
+        b.discardMostRecentElements(17000);
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+        Assert.assertTrue(a.getCapacity() <= 3 * 16384);
+        final BigDecimal[] range = new BigDecimal[5000];
+        a.getElements(100, range, 0, range.length);
+        for (int i = 0; i < range.length; i++) {
+            Assert.assertEquals(b.getElement(100 + i), range[i]);
+        }
+
+        a.setElement(50000, BigDecimal.ONE);
+        b.setElement(50000, BigDecimal.ONE);
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+        verifyEquality(a, a.copy());
+
+        a.setStorageMode(ResizableDecimalArray.StorageMode.DECIMAL);
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+        a.setStorageMode(ResizableDecimalArray.StorageMode.CHUNKED);
+        Assert.assertArrayEquals(b.getElements(), a.getElements());
+        a.clear();
+        Assert.assertEquals(0, a.getNumElements());
+        Assert.assertTrue(a.getCapacity() <= 16384);
+        Assert.assertEquals(ResizableDecimalArray.StorageMode.CHUNKED, a.getStorageMode());
+    }
+
+    @Test
+    public void testCompute() {
+        final ResizableDecimalArray.Function<BigDecimal> add = new ResizableDecimalArray.Function<BigDecimal>() {
+            @Override
+            public BigDecimal evaluate(BigDecimal[] a, int index, int num) {
+                BigDecimal sum = BigDecimal.ZERO;
                 final int getMax = index + num;
                 for (int i = index; i < getMax; i++) {
-                    sum += a[i];
+                    sum = sum.add(a[i]);
                 }
                 return sum;
             }
-            public double evaluate(BigDecimal[] a) {
-                return evaluate(a, 0, a.length);
-            }
         };
 
-        final double sum = a.compute(add);
-        Assert.assertEquals(0.5 * getMax * (getMax + 1), sum, 0);
+        for (ResizableDecimalArray.StorageMode mode : ResizableDecimalArray.StorageMode.values()) {
+            final ResizableDecimalArray a = new ResizableDecimalArray(2, mode);
+            final int getMax = 20;
+            for (int i = 1; i <= getMax; i++) {
+                a.setElement(i - 1, new BigDecimal(i));
+            }
+            Assert.assertEquals(new BigDecimal(getMax * (getMax + 1) / 2), a.compute(add));
+
+            a.discardFrontElements(5);
+            Assert.assertEquals(new BigDecimal(getMax * (getMax + 1) / 2 - 15), a.compute(add));
+
+            a.setCircular(true);
+            for (int i = 0; i < 7; i++) {
+                a.addElementRolling(BigDecimal.ONE);
+            }
+            final BigDecimal expected = a.compute(add);
+            BigDecimal sum = BigDecimal.ZERO;
+            for (BigDecimal value : a.getElements()) {
+                sum = sum.add(value);
+            }
+            Assert.assertEquals(sum, expected);
+        }
+    }
+
+    @Test
+    public void testDiscardedReferences() {
+        final ResizableDecimalArray a = new ResizableDecimalArray(8);
+        a.setCircular(true);
+        for (int i = 0; i < 6; i++) {
+            a.addElement(BigDecimal.valueOf(i));
+        }
+        a.discardFrontElements(2);
+        a.addElementRolling(BigDecimal.TEN);
+        a.discardMostRecentElements(1);
+        // the internal storage references the addressable elements only
+        int referenced = 0;
+        for (BigDecimal value : a.getArrayRef()) {
+            if (value != null) {
+                referenced++;
+            }
+        }
+        Assert.assertEquals(3, a.getNumElements());
+        Assert.assertEquals(3, referenced);
+        final BigDecimal[] storage = a.getArrayRef();
+        a.clear();
+        for (BigDecimal value : storage) {
+            Assert.assertNull(value);
+        }
+
+        // the circular storage is contracted explicitly only
+        for (int i = 0; i < 1000; i++) {
+            a.addElement(BigDecimal.valueOf(i));
+        }
+        a.discardFrontElements(990);
+        Assert.assertTrue(a.getCapacity() >= 1000);
+        a.contract();
+        Assert.assertEquals(11, a.getCapacity());
+        for (int i = 0; i < 25; i++) {
+            a.addElementRolling(BigDecimal.valueOf(-i));
+        }
+        Assert.assertEquals(11, a.getCapacity());
+        Assert.assertEquals(BigDecimal.valueOf(-15), a.getElement(0));
+    }
+
+    @Test
+    public void testPackedBytes() {
+        Assert.assertEquals(9 * 16, ResizableDecimalArray.packedBytes(16));
+        Assert.assertEquals(2147483646, ResizableDecimalArray.packedBytes(238609294));
+        try {
+            // 9 bytes of 238609295 values overflow the int arithmetic
+            ResizableDecimalArray.packedBytes(238609295);
+            Assert.fail("Expecting IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testComputeParts() {
+        final int[] longestPart = new int[1];
+        final ResizableDecimalArray.Function<BigDecimal[]> extremes = new ResizableDecimalArray.Function<BigDecimal[]>() {
+            @Override
+            public BigDecimal[] evaluate(BigDecimal[] a, int index, int num) {
+                longestPart[0] = Math.max(longestPart[0], num);
+                BigDecimal[] result = {a[index], a[index], BigDecimal.ZERO};
+                for (int i = index; i < index + num; i++) {
+                    result[0] = result[0].min(a[i]);
+                    result[1] = result[1].max(a[i]);
+                    result[2] = result[2].add(a[i]);
+                }
+                return result;
+            }
+        };
+        final ResizableDecimalArray.Combiner<BigDecimal[]> merge = new ResizableDecimalArray.Combiner<BigDecimal[]>() {
+            @Override
+            public BigDecimal[] combine(BigDecimal[] left, BigDecimal[] right) {
+                return new BigDecimal[] {left[0].min(right[0]), left[1].max(right[1]), left[2].add(right[2])};
+            }
+        };
+        for (ResizableDecimalArray.StorageMode mode : ResizableDecimalArray.StorageMode.values()) {
+            final ResizableDecimalArray a = new ResizableDecimalArray(2, mode);
+            a.setCircular(true);
+            for (int i = 0; i < 40000; i++) {
+                a.addElement(BigDecimal.valueOf(i * 7919L % 100003, i % 3));
+            }
+            for (int i = 0; i < 30000; i++) {
+                a.addElementRolling(BigDecimal.valueOf(-i, 1));
+            }
+            final BigDecimal[] elements = a.getElements();
+            final BigDecimal[] expected = {elements[0], elements[0], BigDecimal.ZERO};
+            for (BigDecimal value : elements) {
+                expected[0] = expected[0].min(value);
+                expected[1] = expected[1].max(value);
+                expected[2] = expected[2].add(value);
+            }
+            longestPart[0] = 0;
+            Assert.assertArrayEquals(expected, a.compute(extremes, merge));
+            if (mode != ResizableDecimalArray.StorageMode.DECIMAL) {
+                // only the DECIMAL storage is evaluated in place, others are copied a chunk at a time
+                Assert.assertTrue(longestPart[0] <= 16384);
+            }
+            // ranges crossing the chunks and the end of the circular storage
+            for (int index : new int[] {0, 1, 16383, 20000, 39999}) {
+                final int length = Math.min(25000, a.getNumElements() - index);
+                BigDecimal sum = BigDecimal.ZERO;
+                for (int i = index; i < index + length; i++) {
+                    sum = sum.add(elements[i]);
+                }
+                Assert.assertEquals(sum, a.compute(index, length, extremes, merge)[2]);
+            }
+            try {
+                a.compute(30000, 10001, extremes, merge);
+                Assert.fail("Expecting ArrayIndexOutOfBoundsException");
+            } catch (ArrayIndexOutOfBoundsException ex) {
+                // expected
+            }
+            a.clear();
+            Assert.assertEquals(0, a.compute(new ResizableDecimalArray.Function<Integer>() {
+                @Override
+                public Integer evaluate(BigDecimal[] values, int begin, int length) {
+                    return length;
+                }
+            }, null).intValue());
+        }
     }
-    */
 
     private void verifyEquality(ResizableDecimalArray a, ResizableDecimalArray b) {
         Assert.assertTrue(b.equals(a));
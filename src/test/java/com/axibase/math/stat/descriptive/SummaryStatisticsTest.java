@@ -0,0 +1,393 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one or more
+ * contributor license agreements.  See the NOTICE file distributed with
+ * this work for additional information regarding copyright ownership.
+ * The ASF licenses this file to You under the Apache License, Version 2.0
+ * (the "License"); you may not use this file except in compliance with
+ * the License.  You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.axibase.math.stat.descriptive;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * test
+ */
+public class SummaryStatisticsTest {
+
+    @Test
+    public void testMerge() {
+        Random generator = new Random(59);
+        SummaryStatistics whole = new SummaryStatistics();
+        SummaryStatistics merged = new SummaryStatistics();
+        List<StatisticalSummary> parts = new ArrayList<>();
+        for (int part = 0; part < 5; part++) {
+            SummaryStatistics partial = new SummaryStatistics();
+            DescriptiveStatistics descriptive = new DescriptiveStatistics();
+            for (int i = 0; i < part * 10; i++) {
+                BigDecimal value = BigDecimal.valueOf(generator.nextInt(10000) - 5000, 2);
+                whole.addValue(value);
+                partial.addValue(value);
+                descriptive.addValue(value);
+            }
+            merged.merge(partial);
+            parts.add(part % 2 == 0 ? partial : descriptive);
+        }
+        SummaryStatistics aggregated = SummaryStatistics.aggregate(parts);
+        for (SummaryStatistics result : new SummaryStatistics[] {merged, aggregated}) {
+            Assert.assertEquals(whole.getN(), result.getN());
+            Assert.assertEquals(whole.getMin(), result.getMin());
+            Assert.assertEquals(whole.getMax(), result.getMax());
+            Assert.assertEquals(whole.getSum(), result.getSum());
+            Assert.assertEquals(whole.getSumsq(), result.getSumsq());
+            Assert.assertEquals(whole.getVariance(), result.getVariance());
+            Assert.assertEquals(whole.getStandardDeviation(), result.getStandardDeviation());
+        }
+    }
+
+    @Test
+    public void testMergeQuantileSketch() {
+        SummaryStatistics merged = new SummaryStatistics();
+        merged.setQuantileSketch(new QuantileSketch());
+        SummaryStatistics partial = new SummaryStatistics();
+        partial.setQuantileSketch(new QuantileSketch());
+        partial.addValue(BigDecimal.ONE);
+        merged.merge(partial);
+        Assert.assertEquals(1, merged.getQuantileSketch().getN());
+
+        SummaryStatistics plain = new SummaryStatistics();
+        plain.addValue(BigDecimal.TEN);
+        try {
+            merged.merge(plain);
+            Assert.fail("Expecting IllegalArgumentException");
+        } catch (IllegalArgumentException ex) {
+            // expected
+        }
+        Assert.assertEquals(1, merged.getN());
+    }
+
+    @Test
+    public void testConcurrentSummaryStatistics() throws Exception {
+        final ConcurrentSummaryStatistics concurrent = new ConcurrentSummaryStatistics();
+        final SummaryStatistics single = new SummaryStatistics();
+        final BigDecimal[][] values = new BigDecimal[8][1000];
+        Random generator = new Random(61);
+        for (BigDecimal[] threadValues : values) {
+            for (int i = 0; i < threadValues.length; i++) {
+                threadValues[i] = BigDecimal.valueOf(generator.nextInt(100000) - 50000, 3);
+                single.addValue(threadValues[i]);
+            }
+        }
+        Thread[] threads = new Thread[values.length];
+        for (int t = 0; t < threads.length; t++) {
+            final BigDecimal[] threadValues = values[t];
+            threads[t] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (BigDecimal value : threadValues) {
+                        concurrent.addValue(value);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        Assert.assertEquals(single.getN(), concurrent.getN());
+        Assert.assertEquals(single.getMin(), concurrent.getMin());
+        Assert.assertEquals(single.getMax(), concurrent.getMax());
+        Assert.assertEquals(single.getSum(), concurrent.getSum());
+        Assert.assertEquals(single.getSumsq(), concurrent.getSumsq());
+        Assert.assertEquals(single.getVariance(), concurrent.getVariance());
+        concurrent.clear();
+        Assert.assertEquals(0, concurrent.getN());
+    }
+
+    @Test
+    public void testConcurrentEqualExtremes() throws Exception {
+        final ConcurrentSummaryStatistics concurrent = new ConcurrentSummaryStatistics(4, MathContext.DECIMAL64);
+        final SummaryStatistics single = new SummaryStatistics();
+        final String[][] values = {{"5", "-5", "1"}, {"5.0", "2"}, {"-5.00", "3"}, {"4", "5.000"}, {"-5.0", "0"}};
+        for (final String[] threadValues : values) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (String value : threadValues) {
+                        concurrent.addValue(new BigDecimal(value));
+                    }
+                }
+            });
+            thread.start();
+            thread.join();
+            for (String value : threadValues) {
+                single.addValue(new BigDecimal(value));
+            }
+            Assert.assertEquals(single.getMin(), concurrent.getMin());
+            Assert.assertEquals(single.getMax(), concurrent.getMax());
+        }
+        Assert.assertEquals(new BigDecimal("-5.0"), concurrent.getSummary().getMin());
+        Assert.assertEquals(new BigDecimal("5.000"), concurrent.getSummary().getMax());
+    }
+
+    @Test
+    public void testAccumulatorScale() {
+        Random generator = new Random(67);
+        SummaryStatistics plain = new SummaryStatistics();
+        SummaryStatistics accumulated = new SummaryStatistics();
+        accumulated.setAccumulatorScale(3);
+        for (int i = 0; i < 10000; i++) {
+            BigDecimal value;
+            switch (i % 5) {
+                case 0:
+                    // long totals overflow
+                    value = BigDecimal.valueOf(Long.MAX_VALUE / 1000 - generator.nextInt(1000), 3);
+                    break;
+                case 1:
+                    // too many fractional digits
+                    value = BigDecimal.valueOf(generator.nextInt(), 6);
+                    break;
+                case 2:
+                    value = new BigDecimal("12345678901234567890.5").negate();
+                    break;
+                default:
+                    value = BigDecimal.valueOf(generator.nextInt(1000000) - 500000, generator.nextInt(4) - 1);
+            }
+            plain.addValue(value);
+            accumulated.addValue(value);
+            if (i % 1000 == 0) {
+                Assert.assertEquals(plain.getSum(), accumulated.getSum());
+                Assert.assertEquals(plain.getSumsq(), accumulated.getSumsq());
+            }
+        }
+        Assert.assertEquals(plain.getSum(), accumulated.getSum());
+        Assert.assertEquals(plain.getSumsq(), accumulated.getSumsq());
+        Assert.assertEquals(plain.getMean(), accumulated.getMean());
+        Assert.assertEquals(plain.getMin(), accumulated.getMin());
+        Assert.assertEquals(plain.getMax(), accumulated.getMax());
+
+        accumulated.merge(plain);
+        plain.merge(plain);
+        Assert.assertEquals(plain.getSum(), accumulated.getSum());
+        Assert.assertEquals(plain.getSumsq(), accumulated.getSumsq());
+
+        try {
+            accumulated.setAccumulatorScale(2);
+            Assert.fail("Expecting IllegalStateException");
+        } catch (IllegalStateException ex) {
+            // expected
+        }
+        accumulated.clear();
+        Assert.assertNull(accumulated.getSum());
+    }
+
+    @Test
+    public void testAccumulatorWideSquares() {
+        Random generator = new Random(71);
+        SummaryStatistics plain = new SummaryStatistics();
+        SummaryStatistics accumulated = new SummaryStatistics();
+        accumulated.setAccumulatorScale(4);
+        for (int i = 0; i < 10000; i++) {
+            // rescaled unscaled values exceed 3037000499, so their squares do not fit a long
+            long unscaled = (generator.nextLong() >> generator.nextInt(30)) % (Long.MAX_VALUE / 10000);
+            BigDecimal value = BigDecimal.valueOf(i % 3 == 0 ? 303700 + i : unscaled, i % 3 == 0 ? 0 : 4);
+            plain.addValue(value);
+            accumulated.addValue(value);
+            if (i % 1000 == 0) {
+                Assert.assertEquals(plain.getSum(), accumulated.getSum());
+                Assert.assertEquals(plain.getSumsq(), accumulated.getSumsq());
+            }
+        }
+        Assert.assertEquals(plain.getSum(), accumulated.getSum());
+        Assert.assertEquals(plain.getSumsq(), accumulated.getSumsq());
+        Assert.assertEquals(plain.getVariance(), accumulated.getVariance());
+
+        for (int i = 0; i < 1000; i++) {
+            // carries out of 128 bits of the sum of squares
+            BigDecimal value = BigDecimal.valueOf(Long.MAX_VALUE / 10000 - i, i % 2 == 0 ? 0 : 4).negate();
+            plain.addValue(value);
+            accumulated.addValue(value);
+        }
+        Assert.assertEquals(plain.getSum(), accumulated.getSum());
+        Assert.assertEquals(plain.getSumsq(), accumulated.getSumsq());
+    }
+
+    @Test
+    public void testPrimitiveValues() {
+        SummaryStatistics expected = new SummaryStatistics();
+        SummaryStatistics plain = new SummaryStatistics();
+        SummaryStatistics accumulated = new SummaryStatistics();
+        accumulated.setAccumulatorScale(2);
+        Random generator = new Random(71);
+        for (int i = 0; i < 1000; i++) {
+            long unscaled = generator.nextLong() >> generator.nextInt(64);
+            int scale = generator.nextInt(5) - 1;
+            expected.addValue(BigDecimal.valueOf(unscaled, scale));
+            plain.addUnscaled(unscaled, scale);
+            accumulated.addUnscaled(unscaled, scale);
+        }
+        expected.addValue(BigDecimal.valueOf(7));
+        plain.addValue(7L);
+        accumulated.addValue(7L);
+        expected.addValue(new BigDecimal(0.1));
+        plain.addValue(0.1);
+        accumulated.addValue(0.1);
+        expected.addValue(new BigDecimal("0.1"));
+        plain.addValue(0.1, true);
+        accumulated.addValue(0.1, true);
+        // the long is not widened to the double, which is inexact above 2^53
+        expected.addValue(new BigDecimal("9007199254740993"));
+        plain.addValue(9007199254740993L);
+        accumulated.addValue(9007199254740993L);
+        expected.addValue(BigDecimal.valueOf(3));
+        plain.addValue(3);
+        accumulated.addValue(3);
+        for (SummaryStatistics actual : new SummaryStatistics[] {plain, accumulated}) {
+            Assert.assertEquals(expected.getN(), actual.getN());
+            Assert.assertEquals(expected.getMin(), actual.getMin());
+            Assert.assertEquals(expected.getMax(), actual.getMax());
+            Assert.assertEquals(expected.getSum(), actual.getSum());
+            Assert.assertEquals(expected.getSumsq(), actual.getSumsq());
+        }
+    }
+
+    @Test
+    public void testUnscaledExtremes() {
+        Random generator = new Random(73);
+        long[] unscaledValues = {0, 1, -1, 10, -10, 100, Long.MAX_VALUE, Long.MIN_VALUE, Long.MAX_VALUE / 10};
+        int[] scales = {0, 1, 2, -1, 18, 19, -20, Integer.MAX_VALUE, Integer.MIN_VALUE};
+        SummaryStatistics expected = new SummaryStatistics();
+        SummaryStatistics accumulated = new SummaryStatistics();
+        accumulated.setAccumulatorScale(2);
+        for (int i = 0; i < 2000; i++) {
+            long unscaled1 = unscaledValues[generator.nextInt(unscaledValues.length)];
+            int scale1 = scales[generator.nextInt(scales.length)];
+            long unscaled2 = generator.nextBoolean() ? unscaledValues[generator.nextInt(unscaledValues.length)]
+                    : generator.nextLong() >> generator.nextInt(64);
+            int scale2 = generator.nextBoolean() ? scales[generator.nextInt(scales.length)] : generator.nextInt(5) - 2;
+            BigDecimal value1 = BigDecimal.valueOf(unscaled1, scale1);
+            BigDecimal value2 = BigDecimal.valueOf(unscaled2, scale2);
+            Assert.assertEquals(value1.compareTo(value2), DecimalParser.compare(unscaled1, scale1, unscaled2, scale2));
+            Assert.assertEquals(value2.compareTo(value1), DecimalParser.compare(unscaled2, scale2, unscaled1, scale1));
+            if (scale2 >= -2 && scale2 <= 2) {
+                // equal values of different scales, the most recent one is kept
+                expected.addValue(value2);
+                accumulated.addUnscaled(unscaled2, scale2);
+                if (unscaled2 > -Long.MAX_VALUE / 10 && unscaled2 < Long.MAX_VALUE / 10) {
+                    expected.addValue(value2.setScale(scale2 + 1));
+                    accumulated.addUnscaled(unscaled2 * 10, scale2 + 1);
+                }
+                if (i % 100 == 0) {
+                    SummaryStatistics other = new SummaryStatistics();
+                    other.addValue(value2.negate());
+                    expected.merge(other);
+                    accumulated.merge(other);
+                }
+            }
+            Assert.assertEquals(expected.getMin(), accumulated.getMin());
+            Assert.assertEquals(expected.getMax(), accumulated.getMax());
+        }
+    }
+
+    @Test
+    public void testTextValues() {
+        String[] texts = {"0", "-0", "+12", "1.50", "-.5", "7.", "00012.3400", "1E+3", "-2.5e-4", "3E0",
+                "922337203685477580.7", "9223372036854775808", "-123456789012345678901234.5", "1e2147483648"};
+        SummaryStatistics expected = new SummaryStatistics();
+        SummaryStatistics fromChars = new SummaryStatistics();
+        SummaryStatistics fromBytes = new SummaryStatistics();
+        SummaryStatistics fromBuffer = new SummaryStatistics();
+        for (String text : texts) {
+            BigDecimal value;
+            try {
+                value = new BigDecimal(text);
+            } catch (NumberFormatException ex) {
+                try {
+                    fromChars.addParsed(text);
+                    Assert.fail("Expecting NumberFormatException");
+                } catch (NumberFormatException e) {
+                    // expected
+                }
+                continue;
+            }
+            expected.addValue(value);
+            fromChars.addParsed(new StringBuilder(text));
+            byte[] bytes = (" " + text + " ").getBytes(StandardCharsets.US_ASCII);
+            fromBytes.addParsed(bytes, 1, text.length());
+            fromBuffer.addParsed(ByteBuffer.wrap(bytes), 1, text.length());
+
+            SummaryStatistics single = new SummaryStatistics();
+            single.addParsed(text);
+            Assert.assertEquals(value, single.getSum());
+        }
+        for (SummaryStatistics actual : new SummaryStatistics[] {fromChars, fromBytes, fromBuffer}) {
+            Assert.assertEquals(expected.getN(), actual.getN());
+            Assert.assertEquals(expected.getSum(), actual.getSum());
+            Assert.assertEquals(expected.getSumsq(), actual.getSumsq());
+        }
+
+        for (String text : new String[] {"", "-", "1.2.3", "1e", "e5", "1a", "--1"}) {
+            try {
+                fromChars.addParsed(text);
+                Assert.fail("Expecting NumberFormatException for " + text);
+            } catch (NumberFormatException ex) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void testSerialization() {
+        SummaryStatistics empty = new SummaryStatistics(new MathContext(7, RoundingMode.FLOOR));
+        SummaryStatistics small = new SummaryStatistics();
+        small.addValue(new BigDecimal("-1.25"));
+        small.addValue(new BigDecimal("3E+5"));
+        SummaryStatistics big = new SummaryStatistics();
+        big.setAccumulatorScale(4);
+        big.addValue(new BigDecimal("123456789012345678901234567890.123"));
+        big.addValue(new BigDecimal("-0.0001"));
+        // 19 digit unscaled values at the bounds of a long and beyond them
+        SummaryStatistics bounds = new SummaryStatistics();
+        bounds.addValue(new BigDecimal("-922337203.6854775808"));
+        bounds.addValue(new BigDecimal("9.223372036854775807E+30"));
+        bounds.addValue(new BigDecimal("9223372036854775.808"));
+
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        for (SummaryStatistics stats : new SummaryStatistics[] {empty, small, big, bounds}) {
+            int position = buffer.position();
+            stats.writeTo(buffer);
+            Assert.assertEquals(stats.getSerializedSize(), buffer.position() - position);
+        }
+        buffer.flip();
+        for (SummaryStatistics stats : new SummaryStatistics[] {empty, small, big, bounds}) {
+            SummaryStatistics restored = SummaryStatistics.readFrom(buffer);
+            Assert.assertEquals(stats.getN(), restored.getN());
+            Assert.assertEquals(stats.getMin(), restored.getMin());
+            Assert.assertEquals(stats.getMax(), restored.getMax());
+            Assert.assertEquals(stats.getSum(), restored.getSum());
+            Assert.assertEquals(stats.getSumsq(), restored.getSumsq());
+            Assert.assertEquals(stats.getMean(), restored.getMean());
+        }
+        Assert.assertFalse(buffer.hasRemaining());
+        Assert.assertEquals(28, small.getSerializedSize());
+    }
+}